@@ -0,0 +1,135 @@
+package lsi.instruction;
+
+/**
+ * Per-address hit and miss histogram of a cache.
+ *
+ * Counters are plain int arrays covering the whole 16-bit address space, so recording an access never
+ * allocates and the footprint stays fixed however long the simulation runs.
+ */
+public class AddressProfiler {
+
+	public static final int ADDRESS_SPACE = 65536;
+
+	private int[] hits;
+	private int[] misses;
+
+	public AddressProfiler() {
+		this(ADDRESS_SPACE);
+	}
+
+	public AddressProfiler(int addressSpace) {
+		hits = new int[addressSpace];
+		misses = new int[addressSpace];
+	}
+
+	public void hit(int address) {
+		if(address >= 0 && address < hits.length) {
+			hits[address]++;
+		}
+	}
+
+	public void miss(int address) {
+		if(address >= 0 && address < misses.length) {
+			misses[address]++;
+		}
+	}
+
+	public int getHits(int address) {
+		return hits[address];
+	}
+
+	public int getMisses(int address) {
+		return misses[address];
+	}
+
+	/**
+	 * Returns up to k addresses with the most hits, hottest first.
+	 */
+	public int[] hottest(int k) {
+		return topK(hits, k);
+	}
+
+	/**
+	 * Returns up to k addresses with the most misses, most missed first.
+	 */
+	public int[] mostMissed(int k) {
+		return topK(misses, k);
+	}
+
+	/**
+	 * Formats the top k hottest and most missed addresses as two lines of address=count pairs.
+	 */
+	public String report(int k) {
+		StringBuilder sb = new StringBuilder();
+		sb.append("hottest:");
+		append(sb, hits, hottest(k));
+		sb.append("\nmost missed:");
+		append(sb, misses, mostMissed(k));
+		return sb.toString();
+	}
+
+	private static void append(StringBuilder sb, int[] counts, int[] addresses) {
+		for(int address : addresses) {
+			sb.append(' ').append(address).append('=').append(counts[address]);
+		}
+	}
+
+	/**
+	 * Selects the k addresses with the highest non-zero count using a k sized min-heap, one pass over the counters.
+	 */
+	private static int[] topK(int[] counts, int k) {
+		int[] heap = new int[Math.max(k, 0)];
+		int size = 0;
+		for(int address = 0; address < counts.length && k > 0; address++) {
+			if(counts[address] == 0) {
+				continue;
+			}
+			if(size < k) {
+				heap[size] = address;
+				siftUp(heap, counts, size++);
+			} else if(counts[address] > counts[heap[0]]) {
+				heap[0] = address;
+				siftDown(heap, counts, size, 0);
+			}
+		}
+		// Pop the minimum into the back so the result is ordered from highest to lowest
+		int[] result = new int[size];
+		for(int i = size - 1; i >= 0; i--) {
+			result[i] = heap[0];
+			heap[0] = heap[--size];
+			siftDown(heap, counts, size, 0);
+		}
+		return result;
+	}
+
+	private static void siftUp(int[] heap, int[] counts, int i) {
+		while(i > 0) {
+			int parent = (i - 1) >> 1;
+			if(counts[heap[i]] >= counts[heap[parent]]) {
+				return;
+			}
+			int t = heap[i]; heap[i] = heap[parent]; heap[parent] = t;
+			i = parent;
+		}
+	}
+
+	private static void siftDown(int[] heap, int[] counts, int size, int i) {
+		while(true) {
+			int smallest = i;
+			int left = 2 * i + 1;
+			int right = left + 1;
+			if(left < size && counts[heap[left]] < counts[heap[smallest]]) {
+				smallest = left;
+			}
+			if(right < size && counts[heap[right]] < counts[heap[smallest]]) {
+				smallest = right;
+			}
+			if(smallest == i) {
+				return;
+			}
+			int t = heap[i]; heap[i] = heap[smallest]; heap[smallest] = t;
+			i = smallest;
+		}
+	}
+
+}
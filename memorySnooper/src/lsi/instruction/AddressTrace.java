@@ -0,0 +1,136 @@
+package lsi.instruction;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A recorded stream of cache accesses: for each access the PE that made it, the instruction type and the address.
+ *
+ * Kept in growable parallel int arrays. Saved as a binary file holding a magic number, the number of accesses 
+ * and then one (pe, type, address) triple of ints per access.
+ */
+public class AddressTrace {
+
+	private static final int MAGIC = 0x4C534954; // "LSIT"
+
+	private int[] pe;
+	private int[] type;
+	private int[] address;
+	private int length = 0;
+	private int processors = 0;
+
+	public AddressTrace() {
+		this(1024);
+	}
+
+	public AddressTrace(int capacity) {
+		pe = new int[Math.max(capacity, 1)];
+		type = new int[pe.length];
+		address = new int[pe.length];
+	}
+
+	public void add(int pe, int type, int address) {
+		if(length == this.pe.length) {
+			int capacity = length * 2;
+			this.pe = Arrays.copyOf(this.pe, capacity);
+			this.type = Arrays.copyOf(this.type, capacity);
+			this.address = Arrays.copyOf(this.address, capacity);
+		}
+		this.pe[length] = pe;
+		this.type[length] = type;
+		this.address[length] = address;
+		length++;
+		processors = Math.max(processors, pe + 1);
+	}
+
+	public int length() {
+		return length;
+	}
+
+	/**
+	 * Returns the number of PEs, one more than the highest PE index recorded.
+	 */
+	public int getProcessors() {
+		return processors;
+	}
+
+	public int getPe(int i) {
+		return pe[i];
+	}
+
+	public int getType(int i) {
+		return type[i];
+	}
+
+	public int getAddress(int i) {
+		return address[i];
+	}
+
+	public void save(String file) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(length);
+			for(int i = 0; i < length; i++) {
+				out.writeInt(pe[i]);
+				out.writeInt(type[i]);
+				out.writeInt(address[i]);
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	public static AddressTrace load(String file) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			if(in.readInt() != MAGIC) {
+				throw new IOException(file + " is not an address trace");
+			}
+			int length = in.readInt();
+			AddressTrace trace = new AddressTrace(length);
+			for(int i = 0; i < length; i++) {
+				trace.add(in.readInt(), in.readInt(), in.readInt());
+			}
+			return trace;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Returns true if the file starts with the magic number of a saved trace.
+	 */
+	public static boolean isTrace(String file) throws IOException {
+		DataInputStream in = new DataInputStream(new FileInputStream(file));
+		try {
+			return in.readInt() == MAGIC;
+		} catch(IOException e) {
+			return false; // shorter than the magic number
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Loads a saved trace or, if the file does not start with the trace magic number, records the trace of a memory image run for the given cycles by
+	 * the HeadlessSimulator with the PEs of myModel.xml.
+	 */
+	public static AddressTrace open(String file, long cycles) throws IOException {
+		if(isTrace(file)) {
+			return load(file);
+		}
+		HeadlessSimulator simulator = new HeadlessSimulator(MemoryImage.open(file), HeadlessSimulator.MODEL_INITIAL_PCS, null);
+		AddressTrace trace = new AddressTrace();
+		simulator.setTrace(trace);
+		simulator.run(cycles);
+		return trace;
+	}
+
+}
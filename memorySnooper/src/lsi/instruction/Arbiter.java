@@ -0,0 +1,68 @@
+package lsi.instruction;
+
+/**
+ * Decides which of the masters requesting the bus is granted it.
+ *
+ * SingleSharedMemoryBus asks the arbiter each time the bus is free and at least one master drives it. Masters are
+ * numbered 0..masters-1 after the input channel they are connected to.
+ */
+public abstract class Arbiter {
+
+	// Names accepted by create(), also the choices of the bus arbitration parameter
+	public static final String FIXED_PRIORITY = "FIXED_PRIORITY";
+	public static final String ROUND_ROBIN = "ROUND_ROBIN";
+	public static final String TDMA = "TDMA";
+	public static final String WEIGHTED_FAIR = "WEIGHTED_FAIR";
+	public static final String LOTTERY = "LOTTERY";
+
+	protected final int masters;
+
+	protected Arbiter(int masters) {
+		this.masters = masters;
+	}
+
+	/**
+	 * Returns the master granted the bus, or -1 to leave it idle.
+	 * @param requests requests[i] is 1 if master i drives the bus, 0 otherwise
+	 * @param cycle Clock cycles elapsed since the start of the run
+	 */
+	public abstract int select(int[] requests, long cycle);
+
+	/**
+	 * Builds the arbiter with the given name.
+	 * @param name One of FIXED_PRIORITY, ROUND_ROBIN, TDMA, WEIGHTED_FAIR, LOTTERY
+	 * @param weights Share of each master for WEIGHTED_FAIR and tickets for LOTTERY, null for equal shares
+	 * @param slotTable Owner of each TDMA slot, null for one slot per master in channel order
+	 * @param slotLength Cycles per TDMA slot
+	 * @param seed Only used by LOTTERY, so that runs are reproducible
+	 */
+	public static Arbiter create(String name, int masters, int[] weights, int[] slotTable, int slotLength, long seed) {
+		if(weights == null) {
+			weights = new int[masters];
+			for(int i = 0; i < masters; i++) {
+				weights[i] = 1;
+			}
+		}
+		if(weights.length != masters) {
+			throw new IllegalArgumentException(weights.length + " weights given for " + masters + " masters");
+		}
+		for(int weight : weights) {
+			if(weight <= 0) {
+				throw new IllegalArgumentException("Weights must be positive, got " + weight);
+			}
+		}
+		if(FIXED_PRIORITY.equalsIgnoreCase(name)) {
+			return new FixedPriorityArbiter(masters);
+		} else if(ROUND_ROBIN.equalsIgnoreCase(name)) {
+			return new RoundRobinArbiter(masters);
+		} else if(TDMA.equalsIgnoreCase(name)) {
+			return new TdmaArbiter(masters, slotTable, slotLength);
+		} else if(WEIGHTED_FAIR.equalsIgnoreCase(name)) {
+			return new WeightedFairArbiter(masters, weights);
+		} else if(LOTTERY.equalsIgnoreCase(name)) {
+			return new LotteryArbiter(masters, weights, seed);
+		}
+		throw new IllegalArgumentException("Unknown arbitration policy: " + name);
+	}
+
+}
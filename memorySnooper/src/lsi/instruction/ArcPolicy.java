@@ -0,0 +1,146 @@
+package lsi.instruction;
+
+/**
+ * Adaptive replacement cache (Megiddo and Modha), applied to each set with a capacity of ways entries.
+ *
+ * Resident ways are split between T1 (seen once recently) and T2 (seen at least twice). Recently evicted
+ * addresses are remembered in the ghost lists B1 and B2. A miss that hits a ghost list moves the target
+ * size p of T1 towards the list that would have kept the address. All steps take constant time.
+ */
+public class ArcPolicy extends ReplacementPolicy {
+
+	private IndexedList resident; // lists 2*set (T1) and 2*set+1 (T2) of entries
+	private int[] residentAddress;
+
+	private IndexedList ghosts; // lists 2*set (B1) and 2*set+1 (B2) of ghost nodes
+	private int[] ghostAddress;
+	private int[] freeGhosts;   // per set stack of unused ghost nodes, the set owns [set*2*ways, (set+1)*2*ways)
+	private int[] freeGhostCount;
+	private TagIndex ghostIndex;
+
+	private int[] p; // target size of T1 in each set
+	private int adaptedAddress = -1; // address whose ghost hit already moved p during victim()
+
+	public ArcPolicy(int sets, int ways) {
+		super(sets, ways);
+		int entries = sets * ways;
+		resident = new IndexedList(entries, 2 * sets);
+		residentAddress = new int[entries];
+		ghosts = new IndexedList(2 * entries, 2 * sets);
+		ghostAddress = new int[2 * entries];
+		freeGhosts = new int[2 * entries];
+		freeGhostCount = new int[sets];
+		for(int set = 0; set < sets; set++) {
+			for(int i = 0; i < 2 * ways; i++) {
+				freeGhosts[set * 2 * ways + i] = set * 2 * ways + i;
+			}
+			freeGhostCount[set] = 2 * ways;
+		}
+		ghostIndex = new TagIndex(2 * entries);
+		p = new int[sets];
+	}
+
+	public void hit(int set, int way) {
+		resident.addFirst(t2(set), set * ways + way);
+	}
+
+	public int victim(int set, int address) {
+		int ghost = ghostIndex.get(address);
+		adapt(set, ghost);
+		adaptedAddress = address;
+
+		int t1Size = resident.size(t1(set));
+		boolean inB2 = ghost != TagIndex.NOT_FOUND && ghosts.listOf(ghost) == b2(set);
+		int evicted;
+		int ghostList;
+		if(resident.size(t2(set)) == 0 || (t1Size >= 1 && ((inB2 && t1Size == p[set]) || t1Size > p[set]))) {
+			evicted = resident.last(t1(set));
+			ghostList = b1(set);
+		} else {
+			evicted = resident.last(t2(set));
+			ghostList = b2(set);
+		}
+		resident.remove(evicted);
+		addGhost(set, ghostList, residentAddress[evicted]);
+		return evicted - set * ways;
+	}
+
+	public void filled(int set, int way, int address) {
+		int entry = set * ways + way;
+		int ghost = ghostIndex.get(address);
+		if(adaptedAddress != address) {
+			adapt(set, ghost);
+		}
+		adaptedAddress = -1;
+		if(ghost != TagIndex.NOT_FOUND) {
+			removeGhost(set, ghost);
+			resident.addFirst(t2(set), entry);
+		} else {
+			resident.addFirst(t1(set), entry);
+		}
+		residentAddress[entry] = address;
+
+		// Keep |T1| + |B1| <= ways and the whole directory within 2 * ways
+		while(resident.size(t1(set)) + ghosts.size(b1(set)) > ways && ghosts.size(b1(set)) > 0) {
+			removeGhost(set, ghosts.last(b1(set)));
+		}
+		while(directorySize(set) > 2 * ways && ghosts.size(b2(set)) > 0) {
+			removeGhost(set, ghosts.last(b2(set)));
+		}
+	}
+
+	public void invalidated(int set, int way) {
+		// An invalidated line was not evicted by ARC, so it does not become a ghost
+		resident.remove(set * ways + way);
+	}
+
+	private void adapt(int set, int ghost) {
+		if(ghost == TagIndex.NOT_FOUND) {
+			return;
+		}
+		int b1Size = ghosts.size(b1(set));
+		int b2Size = ghosts.size(b2(set));
+		if(ghosts.listOf(ghost) == b1(set)) {
+			p[set] = Math.min(ways, p[set] + Math.max(1, b2Size / b1Size));
+		} else {
+			p[set] = Math.max(0, p[set] - Math.max(1, b1Size / b2Size));
+		}
+	}
+
+	private void addGhost(int set, int list, int address) {
+		if(freeGhostCount[set] == 0) {
+			removeGhost(set, ghosts.last(ghosts.size(b2(set)) > 0 ? b2(set) : b1(set)));
+		}
+		int node = freeGhosts[set * 2 * ways + --freeGhostCount[set]];
+		ghostAddress[node] = address;
+		ghosts.addFirst(list, node);
+		ghostIndex.put(address, node);
+	}
+
+	private void removeGhost(int set, int node) {
+		ghostIndex.remove(ghostAddress[node]);
+		ghosts.remove(node);
+		freeGhosts[set * 2 * ways + freeGhostCount[set]++] = node;
+	}
+
+	private int directorySize(int set) {
+		return resident.size(t1(set)) + resident.size(t2(set)) + ghosts.size(b1(set)) + ghosts.size(b2(set));
+	}
+
+	private static int t1(int set) {
+		return 2 * set;
+	}
+
+	private static int t2(int set) {
+		return 2 * set + 1;
+	}
+
+	private static int b1(int set) {
+		return 2 * set;
+	}
+
+	private static int b2(int set) {
+		return 2 * set + 1;
+	}
+
+}
@@ -0,0 +1,53 @@
+package lsi.instruction;
+
+import java.io.IOException;
+
+/**
+ * Runs a memory image with a growing number of PEs, once with atomic and once with split bus transactions, and prints
+ * one CSV line per run with the bus utilization and throughput of each mode.
+ *
+ * PEs beyond the four of myModel.xml start at the same PCs as the model's PEs, in turn.
+ * The memory can be banked, to measure how far bank parallelism lifts the bandwidth of the split bus.
+ *
+ * Usage: java lsi.instruction.BusModeComparison memoryFile [maxPEs] [cycles] [maxOutstanding] [banks] [bankLatency] [interleaving]
+ */
+public class BusModeComparison {
+
+	public static void main(String[] args) throws IOException {
+		if(args.length < 1) {
+			System.err.println("Usage: java lsi.instruction.BusModeComparison memoryFile [maxPEs] [cycles] [maxOutstanding] [banks] [bankLatency] [interleaving]");
+			System.exit(1);
+		}
+		MemoryImage image = MemoryImage.open(args[0]);
+		int maxPEs = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+		long cycles = args.length > 2 ? Long.parseLong(args[2]) : 40001;
+		int maxOutstanding = args.length > 3 ? Integer.parseInt(args[3]) : 4;
+		int banks = args.length > 4 ? Integer.parseInt(args[4]) : 1;
+		int bankLatency = args.length > 5 ? Integer.parseInt(args[5]) : 1;
+		String interleaving = args.length > 6 ? args[6] : MemoryBanks.LOW_ORDER;
+
+		System.out.println("pes,mode,instructions,completed,throughput,utilization");
+		for(int pes = 1; pes <= maxPEs; pes++) {
+			int[] initialPCs = new int[pes];
+			for(int i = 0; i < pes; i++) {
+				initialPCs[i] = HeadlessSimulator.MODEL_INITIAL_PCS[i % HeadlessSimulator.MODEL_INITIAL_PCS.length];
+			}
+			for(int mode = 0; mode < 2; mode++) {
+				HeadlessSimulator simulator = new HeadlessSimulator(image.copy(), initialPCs, null);
+				simulator.setBanks(new MemoryBanks(banks, interleaving, bankLatency));
+				if(mode == 1) {
+					simulator.setSplitTransactions(maxOutstanding);
+				}
+				simulator.run(cycles);
+				long instructions = 0;
+				for(int i = 0; i < pes; i++) {
+					instructions += simulator.getInstructions(i);
+				}
+				System.out.println(pes + "," + (mode == 1 ? "split" : "atomic") + "," + instructions + "," + simulator.getCompleted()
+						+ "," + (double)simulator.getCompleted() / cycles
+						+ "," + (double)simulator.getTransferCycles() / cycles);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,101 @@
+package lsi.instruction;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * Renders a trace written by BusTraceWriter as text, one transfer per line:
+ * cycle master type address data
+ * where master is -1 for a word sent by memory and type is D, X, R, W or J.
+ *
+ * Usage: java lsi.instruction.BusTraceDecoder traceFile [master=n] [type=n] [address=n] [from=cycle] [to=cycle] [binary=true]
+ * The filters keep only the matching records, binary=true also prints the address and data lines as 16-bit strings.
+ */
+public class BusTraceDecoder {
+
+	public static void main(String[] args) throws IOException {
+		if(args.length < 1) {
+			System.err.println("Usage: java lsi.instruction.BusTraceDecoder traceFile [master=n] [type=n] [address=n] [from=cycle] [to=cycle] [binary=true]");
+			System.exit(1);
+		}
+		Integer master = null, type = null, address = null;
+		long from = Long.MIN_VALUE, to = Long.MAX_VALUE;
+		boolean binary = false;
+		for(int i = 1; i < args.length; i++) {
+			int split = args[i].indexOf('=');
+			if(split < 0) {
+				throw new IllegalArgumentException("Expected key=value, got " + args[i]);
+			}
+			String key = args[i].substring(0, split);
+			String value = args[i].substring(split + 1);
+			if(key.equals("master")) {
+				master = Integer.valueOf(value);
+			} else if(key.equals("type")) {
+				type = Integer.valueOf(value);
+			} else if(key.equals("address")) {
+				address = Integer.valueOf(value);
+			} else if(key.equals("from")) {
+				from = Long.parseLong(value);
+			} else if(key.equals("to")) {
+				to = Long.parseLong(value);
+			} else if(key.equals("binary")) {
+				binary = Boolean.parseBoolean(value);
+			} else {
+				throw new IllegalArgumentException("Unknown option " + key);
+			}
+		}
+
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(args[0]), 1 << 16));
+		Writer out = new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16);
+		try {
+			if(in.readInt() != BusTraceWriter.MAGIC) {
+				throw new IOException(args[0] + " is not a bus trace");
+			}
+			while(true) {
+				long cycle;
+				try {
+					cycle = in.readLong();
+				} catch(EOFException e) {
+					break;
+				}
+				int m = in.readByte();
+				int t = in.readByte();
+				int a = in.readInt();
+				int d = in.readInt();
+				if(cycle < from || cycle > to || (master != null && m != master) || (type != null && t != type) || (address != null && a != address)) {
+					continue;
+				}
+				out.write(cycle + " " + m + " " + typeName(t) + " " + a + " " + d);
+				if(binary) {
+					out.write(" address=" + toBinary(a) + " data=" + toBinary(d));
+				}
+				out.write('\n');
+			}
+		} finally {
+			in.close();
+			out.flush();
+		}
+	}
+
+	private static String typeName(int type) {
+		switch(type) {
+		case Instruction.EXECUTE: return "X";
+		case Instruction.READ: return "R";
+		case Instruction.WRITE: return "W";
+		case Instruction.JUMP: return "J";
+		default: return "D";
+		}
+	}
+
+	private static String toBinary(int value) {
+		if(value > 65535 || value < 0) return "ERROR";
+		return Integer.toBinaryString(0x10000 | value).substring(1);
+	}
+
+}
@@ -0,0 +1,157 @@
+package lsi.instruction;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Records bus transfers into a binary trace file without slowing the simulation down.
+ *
+ * record() stores the fields of a transfer into a preallocated ring buffer of primitive arrays and returns, a
+ * background thread drains the ring into the file. There is a single producer and a single consumer, so the two
+ * only share the volatile counts of records written and flushed. The producer waits only if the ring is full.
+ *
+ * The file starts with MAGIC and is followed by records of RECORD_BYTES bytes, big-endian:
+ * cycle (long), master (byte, -1 for a word sent by memory), type (byte), address (int), data (int).
+ * BusTraceDecoder renders and filters it.
+ */
+public class BusTraceWriter {
+
+	public static final int MAGIC = 0x4C534942; // "LSIB"
+	public static final int RECORD_BYTES = 18;
+
+	private final long[] cycles;
+	private final int[] masters, types, addresses, data;
+	private final int mask;
+
+	private volatile long written = 0;
+	private volatile long flushed = 0;
+	private volatile boolean closing = false;
+	private volatile IOException failure;
+
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(RECORD_BYTES * 4096);
+	private final Thread flusher;
+
+	/**
+	 * @param fileName Trace file, overwritten
+	 * @param capacity Records the ring holds, rounded up to a power of two
+	 */
+	public BusTraceWriter(String fileName, int capacity) throws IOException {
+		int slots = 1;
+		while(slots < capacity) {
+			slots <<= 1;
+		}
+		cycles = new long[slots];
+		masters = new int[slots];
+		types = new int[slots];
+		addresses = new int[slots];
+		data = new int[slots];
+		mask = slots - 1;
+
+		file = new RandomAccessFile(fileName, "rw");
+		file.setLength(0);
+		channel = file.getChannel();
+		buffer.putInt(MAGIC);
+		try {
+			write(); // now, so a trace closed before any record is still valid
+		} catch(IOException e) {
+			file.close();
+			throw e;
+		}
+
+		flusher = new Thread(new Runnable() {
+			public void run() {
+				drain();
+			}
+		}, "bus trace flusher");
+		flusher.setDaemon(true);
+		flusher.start();
+	}
+
+	/**
+	 * Queues one transfer. Called from the simulation thread only.
+	 */
+	public void record(long cycle, int master, int type, int address, int data) {
+		long w = written;
+		while(w - flushed > mask) { // ring full, let the flusher catch up
+			if(failure != null) {
+				return; // the file is broken, close() reports it
+			}
+			LockSupport.unpark(flusher);
+			Thread.yield();
+		}
+		int i = (int)(w & mask);
+		cycles[i] = cycle;
+		masters[i] = master;
+		types[i] = type;
+		addresses[i] = address;
+		this.data[i] = data;
+		written = w + 1; // publishes the record to the flusher
+	}
+
+	public long getRecords() {
+		return written;
+	}
+
+	/**
+	 * Flushes every queued record and closes the file.
+	 */
+	public void close() throws IOException {
+		closing = true;
+		LockSupport.unpark(flusher);
+		try {
+			flusher.join();
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		file.close();
+		if(failure != null) {
+			throw failure;
+		}
+	}
+
+	private void drain() {
+		try {
+			while(true) {
+				long w = written;
+				long f = flushed;
+				if(f == w) {
+					if(closing && written == f) {
+						break;
+					}
+					LockSupport.parkNanos(1000000);
+					continue;
+				}
+				for(; f < w; f++) {
+					if(buffer.remaining() < RECORD_BYTES) {
+						write();
+					}
+					int i = (int)(f & mask);
+					buffer.putLong(cycles[i]);
+					buffer.put((byte)masters[i]);
+					buffer.put((byte)types[i]);
+					buffer.putInt(addresses[i]);
+					buffer.putInt(data[i]);
+				}
+				flushed = f; // the slots can be reused, their records are in the buffer
+				write();
+			}
+		} catch(IOException e) {
+			failure = e;
+			flushed = Long.MAX_VALUE / 2; // never block the producer again
+		}
+	}
+
+	private void write() throws IOException {
+		buffer.flip();
+		while(buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+}
@@ -1,54 +1,80 @@
 package lsi.instruction;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-
 import ptolemy.actor.TypedAtomicActor;
 import ptolemy.actor.TypedIOPort;
-import ptolemy.actor.parameters.IntRangeParameter;
+import ptolemy.data.BooleanToken;
 import ptolemy.data.IntToken;
 import ptolemy.data.RecordToken;
 import ptolemy.data.expr.Parameter;
 import ptolemy.data.expr.StringParameter;
 import ptolemy.data.type.BaseType;
 import ptolemy.kernel.CompositeEntity;
+import ptolemy.kernel.util.Attribute;
 import ptolemy.kernel.util.IllegalActionException;
 import ptolemy.kernel.util.NameDuplicationException;
 
 /**
  *  Represents a local memory attached to a processing element (PE).
+ *  
+ *  The cache logic lives in CacheSimulator, this actor feeds it the requests its PE drives the bus with.
+ *  
+ *  When its snoop port is connected to the snoop port of the bus, the cache sees each transaction the bus commits once
+ *  and keeps the ones issued by the master set in its master parameter. Otherwise it listens to its PE directly on the
+ *  input port, where a waiting PE repeats its request every cycle: repeated requests are then dropped, two identical
+ *  accesses in a row included.
+ *  
+ *  The cache does not see what the other PEs do, so a word another PE writes stays valid in it: its hit rates are those
+ *  of the PE running alone. CoherentCaches, connected to the same snoop port, reports the coherent hit rates.
  */
 public class Cache extends TypedAtomicActor {
 	
 	// Write-hit policies
-	public static final int WRITE_BACK = 0;     // Write to cache now, write to main later if cache word is overwritten
-	public static final int WRITE_THROUGH = 1;  // Write to cache and main at the same time
+	public static final int WRITE_BACK = WritePolicy.WRITE_BACK;       // Write to cache now, write to main later if cache word is overwritten
+	public static final int WRITE_THROUGH = WritePolicy.WRITE_THROUGH; // Write to cache and main at the same time
 	
 	// Write-miss policies
-	public static final int WRITE_AROUND = 2;   // Just write to main
-	public static final int WRITE_ALLOCATE = 3; // Load into cache & write on cache and main
+	public static final int WRITE_AROUND = WritePolicy.WRITE_AROUND;     // Just write to main
+	public static final int WRITE_ALLOCATE = WritePolicy.WRITE_ALLOCATE; // Load into cache & write on cache and main
 
 	// Cache parameters that can be set in the Ptolemy simulation
 	Parameter size;
+	Parameter associativity; // Lines per set: 1 is direct-mapped, 0 or size/lineSize is fully associative
+	Parameter lineSize; // Words per cache line, a miss loads the whole line
+	StringParameter replacementPolicy; // FIFO, LRU, PLRU, RANDOM, LFU or ARC
+	Parameter replacementSeed; // Seed of the RANDOM replacement policy
+	Parameter profileTopK; // Number of hottest and most missed addresses reported at wrapup, 0 disables profiling
 	Parameter usingWritePolicies;
 	Parameter writeHitPolicy;
 	Parameter writeMissPolicy;
+	StringParameter prefetcher; // NONE, NEXT_LINE, STRIDE or STREAM
+	Parameter prefetchDegree; // Lines fetched per prediction, also the depth of each stream buffer
+	Parameter prefetchDistance; // How many lines (strides for STRIDE) ahead of the access prefetching starts
+	Parameter prefetchTable; // Entries of the STRIDE reference prediction table, number of STREAM buffers
+	Parameter master; // Bus input channel of the PE, selects its transactions on the snoop port
 	
 	
 	// The data structure containing the stored addresses
 	PhysicalMemory memory;
 	
-	// Statistics for cache-hits, cache-misses and number of write operations to main memory
-	Map<String, Integer> cacheStats;
+	// Per-address hit and miss counters, null when profileTopK is 0
+	AddressProfiler profiler;
+	
+	// Runs the accesses against memory and keeps the statistics for cache-hits, cache-misses and write operations to main memory
+	CacheSimulator simulator;
 	
 	// Input port that receives the addresses used by PE to drive the bus
 	TypedIOPort instructionsInput;	
 	
-	// The instruction the PE has sent last. While the PE has not got a grant signal from the bus, the PE keeps driving the bus with the same data. 
-	// By knowing the previously seen instruction we can determine when a bus transaction has happened and when the PE is just waiting.
-	Instruction previousInstruction = null;
+	// Input port that receives the transactions committed by the bus, with the master that issued them
+	TypedIOPort snoopInput;
+	boolean snooping;
+	int snoopedMaster;
+	
+	// The request the PE has sent last. While the PE has not got a grant signal from the bus, the PE keeps driving the bus with the same data. 
+	// By knowing the previously seen request we can determine when a bus transaction has happened and when the PE is just waiting.
+	// Kept as primitives so that retries do not allocate.
+	boolean hasPrevious = false;
+	int previousType, previousData, previousAddress, previousTime;
 	
 	public Cache(CompositeEntity container, String name) throws IllegalActionException, NameDuplicationException {
 		super(container, name);
@@ -60,193 +86,188 @@ public class Cache extends TypedAtomicActor {
 
 	public void initialize() throws IllegalActionException{
 		super.initialize();
-		memory = new PhysicalMemory(Integer.parseInt(size.getValueAsString()));
+		try {
+			memory = PhysicalMemory.create(
+					Integer.parseInt(size.getValueAsString()),
+					Integer.parseInt(associativity.getValueAsString()),
+					Integer.parseInt(lineSize.getValueAsString()),
+					replacementPolicy.stringValue(),
+					Long.parseLong(replacementSeed.getValueAsString()));
+		} catch(IllegalArgumentException e) {
+			throw new IllegalActionException(this, e.getMessage());
+		}
+		profiler = null;
+		if(Integer.parseInt(profileTopK.getValueAsString()) > 0) {
+			profiler = new AddressProfiler();
+			memory.setProfiler(profiler);
+		}
 		
-		initializeCacheStats();
+		simulator = new CacheSimulator(memory, resolveWritePolicy());
+		try {
+			simulator.setPrefetcher(Prefetcher.create(
+					prefetcher.stringValue(),
+					Integer.parseInt(prefetchDegree.getValueAsString()),
+					Integer.parseInt(prefetchDistance.getValueAsString()),
+					Integer.parseInt(prefetchTable.getValueAsString()),
+					simulator.getLines()));
+		} catch(IllegalArgumentException e) {
+			throw new IllegalActionException(this, e.getMessage());
+		}
+		hasPrevious = false;
+		snooping = snoopInput.getWidth() > 0;
+		snoopedMaster = ((IntToken)master.getToken()).intValue();
+		if(snooping && snoopedMaster < 0) {
+			throw new IllegalActionException(this, "master must be set to the bus channel of the PE when snooping");
+		}
+	}
+
+	/**
+	 * Re-resolves the write policy when one of its parameters changes during a run.
+	 */
+	public void attributeChanged(Attribute attribute) throws IllegalActionException {
+		if(simulator != null && (attribute == usingWritePolicies || attribute == writeHitPolicy || attribute == writeMissPolicy)) {
+			simulator.setWritePolicy(resolveWritePolicy());
+		} else {
+			super.attributeChanged(attribute);
+		}
 	}
 
 	/*
 	 * When this method is called it means that the connected PE has driven the bus with a request that we represent as an instruction.
+	 * The fields are read straight from the token, no Instruction is built.
 	 * @see ptolemy.actor.AtomicActor#fire()
 	 */
 	public void fire() throws IllegalActionException {
-		if(instructionsInput.hasToken(0)) {
-	
-			RecordToken t = (RecordToken)instructionsInput.get(0);
-			Instruction instruction = makeInstructionFromToken(t);
-			if(areEqual(previousInstruction, instruction)) {
-				return;
+		if(snooping) {
+			while(instructionsInput.getWidth() > 0 && instructionsInput.hasToken(0)) {
+				instructionsInput.get(0); // requests are taken from the snoop port
 			}
-			previousInstruction = instruction;
-			simulateInstruction(instruction);
-		} 	
-	}
-
-	public void simulateInstruction(Instruction instruction) throws IllegalActionException {
-		
-		if(Boolean.parseBoolean(usingWritePolicies.getValueAsString())) {
-			// using writing policies affects the effects of write instructuions
-			if(instruction.type == 2) { 
-				// Current instruction is data to be written at a certain address
-	 			simulateWrite(instruction);
-			} else {
-				// regardless of wheter it is a read, jump, execute instruction or data to read we need to fectch a memory location from memory
-				simulateFetch(instruction);
+			while(snoopInput.hasToken(0)) {
+				snoop((RecordToken)snoopInput.get(0));
 			}
-		} else {
-			// When not using write policies we simply write to cache the data that the write instruction writes
-			// Instructions that read that data may generate a cache hit because of that
-			if(instruction.type == 2) { 
-				memory.load(instruction.address, false);
-			} else {
-				if(memory.hasAddressLoaded(instruction.address)) {
-					increment("read-hit");
-				} else {
-					increment("read-miss");
-					memory.load(instruction.address, false);
-				}
-			}
-		}
-	}
-	
-	private void simulateFetch(Instruction i) throws IllegalActionException {
-		if(memory.hasAddressLoaded(i.address)) {
-			increment("read-hit");
-		} else {
-			increment("read-miss");
-			simulateLoadWithWritePolicies(i, false);
-		}
-	}
-	
-	private void simulateWrite(Instruction i) throws IllegalActionException {
-		if(memory.hasAddressLoaded(i.address)) {
-			simulateWriteHit();
-		} else {
-			simulateWriteMiss(i);
-		}
+		} else if(instructionsInput.hasToken(0)) {
+			request((RecordToken)instructionsInput.get(0));
+		} 	
 	}
 
-	private void simulateWriteMiss(Instruction i) throws IllegalActionException {
-		increment("write-miss");
-		if(Integer.parseInt(writeMissPolicy.getValueAsString()) == WRITE_AROUND) {
-			increment("write-to-main");
-			// Write Around do not load to cache
-		} else { 
-			// Write Allocate both load to cache and update main
-			simulateLoadWithWritePolicies(i, true);
-			increment("write-to-main"); // Write allocate write both to cache and main
+	/*
+	 * Simulates a transaction committed by the bus if its master is the PE of this cache.
+	 */
+	void snoop(RecordToken t) {
+		if(((IntToken)t.get("master")).intValue() == snoopedMaster) {
+			simulator.access(((IntToken)t.get("type")).intValue(), ((IntToken)t.get("address")).intValue());
 		}
 	}
 
-	/**
-	 * Simulated the effects of either loading data or an instruction which are NOT already in the cache.
-	 * @param instruction The instruction or data we need to fetch or load.
-	 * @param isData True if loading data, false otherwise.
-	 * @throws IllegalActionException 
+	/*
+	 * Simulates a request the PE has driven the bus with, unless it repeats the previous one.
 	 */
-	private void simulateLoadWithWritePolicies(Instruction instruction, boolean isData) throws IllegalActionException {
-		if(memory.load(instruction.address, isData)) {
-			// Cached line flagged as data was overwritten, if we use write back now it is time to persist to main memory the cached data about to be overwritten 
-			if(Integer.parseInt(writeHitPolicy.getValueAsString()) == WRITE_BACK) { 
-				// Write back transfers cache content before it is overwritten
-				increment("write-to-main");
-			}
-		};
-		increment("read-from-main");
-	}
-	
-
-	private void simulateWriteHit() throws IllegalActionException {
-		increment("write-hit");
-		if(Integer.parseInt(writeHitPolicy.getValueAsString()) == WRITE_THROUGH) {
-			// Write-through always writes both to cache and main memory to ensure consistency
-			increment("write-to-main");
+	void request(RecordToken t) {
+		int type = ((IntToken)t.get("type")).intValue();
+		int data = ((IntToken)t.get("data")).intValue();
+		int address = ((IntToken)t.get("address")).intValue();
+		int time = ((IntToken)t.get("time")).intValue();
+		if(hasPrevious && type == previousType && address == previousAddress && data == previousData && time == previousTime) {
+			return;
 		}
-		// If using write back we just update cache so we dont need to do anything
-	}
-	
-	/**
-	 * Increment a cache statistic.
-	 * @param cacheStatistic String representing the statistic to increment. 
-	 * Values are: read-hit, read-miss, write-miss, write-hit, write-to-main, read-from-main
-	 */
-	private void increment(String cacheStatistic) {
-		cacheStats.put(cacheStatistic, cacheStats.get(cacheStatistic) + 1);
+		hasPrevious = true;
+		previousType = type;
+		previousData = data;
+		previousAddress = address;
+		previousTime = time;
+		simulator.access(type, address);
 	}
 
-	private void initializeCacheStats() {
-		cacheStats = new HashMap<String, Integer>();
-		cacheStats.put("read-hit", 0); // Fetches or Read instructions that need to access main memory
-		cacheStats.put("read-miss", 0);  // Fetches or read instructions that DONT need to access main memory
-		cacheStats.put("write-hit", 0);  // Write instructions that finds address in the cache
-		cacheStats.put("write-miss", 0);  // Write instructions that DONT finds address in the cache
-		cacheStats.put("write-to-main", 0); // number of times the PE had to write to main memory
-		cacheStats.put("read-from-main", 0); // number of times the PE had to from main memory
-		// Generally, read-from-main will be equal to read-miss. But when we use a write-allocate policy
-		// we need to read from main memory when the address we want to write to is not in the cache.
+	public void simulateInstruction(Instruction instruction) throws IllegalActionException {
+		simulator.access(instruction.type, instruction.address);
 	}
 	
-	/** 
-	 * Transforms the record token we get from the input of this actor into an instance of the instruction class.
-	 * Effectively the data used by a PE to drive the bus can be interpreted as an instruction.
-	 * @param recordToken
-	 * @return
-	 */
-	private Instruction makeInstructionFromToken(RecordToken recordToken) {
-		Instruction i = new Instruction(
-				((IntToken)recordToken.get("type")).intValue(),
-				((IntToken)recordToken.get("data")).intValue(),
-				((IntToken)recordToken.get("address")).intValue(), 
-				((IntToken)recordToken.get("time")).intValue() 
-		);
-		return i;
+	public CacheSimulator getSimulator() {
+		return simulator;
 	}
 	
-	/**
-	 * Returns true if the two instructions are the same.
-	 * @param right An instruction
-	 * @param left n instruction
-	 * @return
-	 */
-	private boolean areEqual(Instruction right, Instruction left) {
-		assert(left != null);
-		if (right != null && 
-			right.type == left.type &&
-			right.address == left.address &&
-			right.data == left.data &&
-			right.time == left.time) {
-			return true;
+	private WritePolicy resolveWritePolicy() throws IllegalActionException {
+		try {
+			return new WritePolicy(
+					((BooleanToken)usingWritePolicies.getToken()).booleanValue(),
+					((IntToken)writeHitPolicy.getToken()).intValue(),
+					((IntToken)writeMissPolicy.getToken()).intValue());
+		} catch(IllegalArgumentException e) {
+			throw new IllegalActionException(this, e.getMessage());
 		}
-		return false;
 	}
 	
 	private void setupParameters() throws IllegalActionException, NameDuplicationException {
 		// Parameters initialisation
 		size = new Parameter(this, "size");
+		associativity = new Parameter(this, "associativity");
+		lineSize = new Parameter(this, "lineSize");
+		replacementPolicy = new StringParameter(this, "replacementPolicy");
+		replacementSeed = new Parameter(this, "replacementSeed");
+		profileTopK = new Parameter(this, "profileTopK");
 		writeHitPolicy = new Parameter(this, "writeHitPolicy");
 		writeMissPolicy = new Parameter(this, "writeMissPolicy");
 		usingWritePolicies = new Parameter(this, "usingWritePolicies");
+		prefetcher = new StringParameter(this, "prefetcher");
+		prefetchDegree = new Parameter(this, "prefetchDegree");
+		prefetchDistance = new Parameter(this, "prefetchDistance");
+		prefetchTable = new Parameter(this, "prefetchTable");
+		master = new Parameter(this, "master");
 		// Parameters type
 		size.setTypeEquals(BaseType.INT);
+		associativity.setTypeEquals(BaseType.INT);
+		lineSize.setTypeEquals(BaseType.INT);
+		replacementSeed.setTypeEquals(BaseType.INT);
+		profileTopK.setTypeEquals(BaseType.INT);
 		writeHitPolicy.setTypeEquals(BaseType.INT);
 		writeMissPolicy.setTypeEquals(BaseType.INT);
 		usingWritePolicies.setTypeEquals(BaseType.BOOLEAN);
+		prefetchDegree.setTypeEquals(BaseType.INT);
+		prefetchDistance.setTypeEquals(BaseType.INT);
+		prefetchTable.setTypeEquals(BaseType.INT);
+		master.setTypeEquals(BaseType.INT);
 		// Starting values
 		size.setExpression("128");
+		associativity.setExpression("0");
+		lineSize.setExpression("1");
+		replacementPolicy.setExpression(ReplacementPolicy.FIFO);
+		replacementPolicy.addChoice(ReplacementPolicy.FIFO);
+		replacementPolicy.addChoice(ReplacementPolicy.LRU);
+		replacementPolicy.addChoice(ReplacementPolicy.TREE_PLRU);
+		replacementPolicy.addChoice(ReplacementPolicy.RANDOM);
+		replacementPolicy.addChoice(ReplacementPolicy.LFU);
+		replacementPolicy.addChoice(ReplacementPolicy.ARC);
+		replacementSeed.setExpression("1");
+		profileTopK.setExpression("0");
 		writeHitPolicy.setExpression("0");
 		writeMissPolicy.setExpression("2");
-		writeMissPolicy.setExpression("false");
+		usingWritePolicies.setExpression("false");
+		prefetcher.setExpression(Prefetcher.NONE);
+		prefetcher.addChoice(Prefetcher.NONE);
+		prefetcher.addChoice(Prefetcher.NEXT_LINE);
+		prefetcher.addChoice(Prefetcher.STRIDE);
+		prefetcher.addChoice(Prefetcher.STREAM);
+		prefetchDegree.setExpression("1");
+		prefetchDistance.setExpression("1");
+		prefetchTable.setExpression("16");
+		master.setExpression("-1");
 	}
 	
 	private void setupInputPort() throws IllegalActionException, NameDuplicationException {
 		instructionsInput = new TypedIOPort(this, "input", true, false);
 		instructionsInput.setTypeEquals(Instruction.getTokenType());
+		snoopInput = new TypedIOPort(this, "snoop", true, false);
+		snoopInput.setTypeEquals(Instruction.getCommitTokenType());
 	}
 	
 	public void wrapup() throws IllegalActionException {
-		System.out.println(cacheStats);
+		System.out.println(simulator);
+		if(simulator.getPrefetcher() != null) {
+			System.out.println(getName() + " " + simulator.prefetchReport());
+		}
+		if(profiler != null) {
+			System.out.println(getName() + " " + profiler.report(Integer.parseInt(profileTopK.getValueAsString())));
+		}
 	}
 
 }
-
-
@@ -1,15 +0,0 @@
-package lsi.instruction;
-
-import ptolemy.kernel.CompositeEntity;
-import ptolemy.kernel.util.IllegalActionException;
-import ptolemy.kernel.util.NameDuplicationException;
-/**
- * The first cache
- */
-public class Cache3 extends Cache {
-
-	public Cache3(CompositeEntity container, String name) throws IllegalActionException, NameDuplicationException {
-		super(container, "cache3");
-	}
-
-}
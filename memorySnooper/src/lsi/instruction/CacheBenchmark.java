@@ -0,0 +1,124 @@
+package lsi.instruction;
+
+import java.lang.management.ManagementFactory;
+
+import ptolemy.actor.TypedCompositeActor;
+import ptolemy.data.IntToken;
+import ptolemy.data.RecordToken;
+import ptolemy.kernel.util.Workspace;
+
+/**
+ * Measures the speed and the heap allocation of CacheSimulator.access for every replacement policy, then of the path
+ * a token takes through a Cache actor once its port has handed it over: the fields read from the request token on the
+ * input port (request) and from the commit token on the snoop port (snoop, a quarter of them from the cache's master).
+ * The port queues and the director are not part of the measure.
+ *
+ * The address stream is generated up front so that only the simulation itself is measured: sequential
+ * instruction fetches with strided data reads and writes, like the programs in memory.txt. The actor paths cycle
+ * through tokens of the first 65,536 accesses, built up front as well.
+ * Allocation is read from the HotSpot per-thread allocation counter, so it needs a HotSpot based JVM.
+ *
+ * Usage: java lsi.instruction.CacheBenchmark [accesses] [size] [associativity] [lineSize]
+ */
+public class CacheBenchmark {
+
+	private static final int TOKENS = 65536;
+
+	public static void main(String[] args) throws Exception {
+		int accesses = args.length > 0 ? Integer.parseInt(args[0]) : 10000000;
+		int size = args.length > 1 ? Integer.parseInt(args[1]) : 1024;
+		int ways = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+		int lineSize = args.length > 3 ? Integer.parseInt(args[3]) : 4;
+
+		int[] types = new int[accesses];
+		int[] addresses = new int[accesses];
+		makeStream(types, addresses);
+
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+		long thread = Thread.currentThread().getId();
+		String[] policies = {ReplacementPolicy.FIFO, ReplacementPolicy.LRU, ReplacementPolicy.TREE_PLRU,
+				ReplacementPolicy.RANDOM, ReplacementPolicy.LFU, ReplacementPolicy.ARC};
+
+		System.out.println("policy,accesses,ns-per-access,bytes-allocated,bytes-per-access");
+		for(String policy : policies) {
+			CacheSimulator simulator = newSimulator(policy, size, ways, lineSize);
+			run(simulator, types, addresses); // warm up so the JIT has compiled the access path
+
+			simulator = newSimulator(policy, size, ways, lineSize);
+			long allocatedBefore = threads.getThreadAllocatedBytes(thread);
+			long start = System.nanoTime();
+			run(simulator, types, addresses);
+			long elapsed = System.nanoTime() - start;
+			long allocated = threads.getThreadAllocatedBytes(thread) - allocatedBefore;
+
+			System.out.println(policy + "," + accesses + "," + ((double)elapsed / accesses) + "," + allocated + "," + ((double)allocated / accesses));
+		}
+
+		int tokens = Math.min(accesses, TOKENS);
+		RecordToken[] requests = new RecordToken[tokens];
+		RecordToken[] commits = new RecordToken[tokens];
+		for(int i = 0; i < tokens; i++) {
+			requests[i] = Instruction.getToken(types[i], 0, addresses[i], i);
+			commits[i] = Instruction.getCommitToken(new IntToken(i % 4), requests[i]);
+		}
+		Cache cache = new Cache(new TypedCompositeActor(new Workspace()), "Cache");
+		cache.snoopedMaster = 0;
+		for(int path = 0; path < 2; path++) {
+			RecordToken[] stream = (path == 0) ? requests : commits;
+			cache.simulator = newSimulator(ReplacementPolicy.FIFO, size, ways, lineSize);
+			cache.hasPrevious = false;
+			runActor(cache, stream, path == 1, accesses); // warm up
+
+			cache.simulator = newSimulator(ReplacementPolicy.FIFO, size, ways, lineSize);
+			cache.hasPrevious = false;
+			long allocatedBefore = threads.getThreadAllocatedBytes(thread);
+			long start = System.nanoTime();
+			runActor(cache, stream, path == 1, accesses);
+			long elapsed = System.nanoTime() - start;
+			long allocated = threads.getThreadAllocatedBytes(thread) - allocatedBefore;
+
+			System.out.println("Cache." + ((path == 0) ? "request" : "snoop") + " " + ReplacementPolicy.FIFO + "," + accesses + "," + ((double)elapsed / accesses) + "," + allocated + "," + ((double)allocated / accesses));
+		}
+	}
+
+	private static CacheSimulator newSimulator(String policy, int size, int ways, int lineSize) {
+		int lines = size / lineSize;
+		PhysicalMemory memory = new PhysicalMemory(lines, ways, lineSize, ReplacementPolicy.create(policy, lines / ways, ways, 1));
+		return new CacheSimulator(memory, new WritePolicy(true, WritePolicy.WRITE_BACK, WritePolicy.WRITE_ALLOCATE));
+	}
+
+	private static void run(CacheSimulator simulator, int[] types, int[] addresses) {
+		for(int i = 0; i < types.length; i++) {
+			simulator.access(types[i], addresses[i]);
+		}
+	}
+
+	private static void runActor(Cache cache, RecordToken[] stream, boolean snoop, int accesses) {
+		for(int i = 0; i < accesses; i++) {
+			if(snoop) {
+				cache.snoop(stream[i % stream.length]);
+			} else {
+				cache.request(stream[i % stream.length]);
+			}
+		}
+	}
+
+	private static void makeStream(int[] types, int[] addresses) {
+		int pc = 4000;
+		int data = 11000;
+		for(int i = 0; i < types.length; i++) {
+			if(i % 3 == 0) {
+				types[i] = (i % 7 == 0) ? Instruction.WRITE : Instruction.READ;
+				addresses[i] = data;
+				data = 11000 + (data - 11000 + 13) % 8192;
+			} else {
+				types[i] = Instruction.READ; // fetch
+				addresses[i] = pc++;
+				if(pc == 6000) {
+					pc = 4000; // jump back, the loop body is 2000 words long
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,155 @@
+package lsi.instruction;
+
+import ptolemy.actor.TypedAtomicActor;
+import ptolemy.actor.TypedIOPort;
+import ptolemy.data.IntToken;
+import ptolemy.data.RecordToken;
+import ptolemy.data.expr.Parameter;
+import ptolemy.data.expr.StringParameter;
+import ptolemy.data.type.BaseType;
+import ptolemy.kernel.CompositeEntity;
+import ptolemy.kernel.util.IllegalActionException;
+import ptolemy.kernel.util.NameDuplicationException;
+
+/**
+ *  Represents a two level cache hierarchy: a private L1 for each processing element (PE) and an L2 shared by all.
+ *  
+ *  The input multiport is connected to the PE outputs, channel i being PE i.
+ *  The simulation itself is done by CacheHierarchySimulator, which reports per-level hit rates and the 
+ *  average memory access time at wrapup.
+ */
+public class CacheHierarchy extends TypedAtomicActor {
+
+	// Cache parameters that can be set in the Ptolemy simulation
+	Parameter l1Size;
+	Parameter l1Associativity; // 0 is fully associative
+	Parameter l2Size;
+	Parameter l2Associativity; // 0 is fully associative
+	Parameter lineSize; // Words per line, shared by both levels
+	StringParameter replacementPolicy; // FIFO, LRU, PLRU, RANDOM, LFU or ARC, used by both levels
+	Parameter replacementSeed; // Seed of the RANDOM replacement policy: the L1 of PE i uses seed + i, the L2 seed + PEs
+	StringParameter inclusionPolicy; // INCLUSIVE, EXCLUSIVE or NINE
+	Parameter l1Latency;
+	Parameter l2Latency;
+	Parameter memoryLatency;
+
+	CacheHierarchySimulator simulator;
+
+	// Input multiport that receives the requests each PE drives the bus with
+	TypedIOPort instructionsInput;
+
+	// The request each PE has sent last, used to ignore the retries of a PE waiting for a grant (see Cache)
+	boolean[] hasPrevious;
+	int[] previousType, previousData, previousAddress, previousTime;
+
+	public CacheHierarchy(CompositeEntity container, String name) throws IllegalActionException, NameDuplicationException {
+		super(container, name);
+		instructionsInput = new TypedIOPort(this, "input", true, false);
+		instructionsInput.setMultiport(true);
+		instructionsInput.setTypeEquals(Instruction.getTokenType());
+		setupParameters();
+	}
+
+	public void initialize() throws IllegalActionException {
+		super.initialize();
+		int processors = instructionsInput.getWidth();
+		int wordsPerLine = intValue(lineSize);
+		long seed = intValue(replacementSeed);
+		try {
+			PhysicalMemory[] l1 = new PhysicalMemory[processors];
+			for(int i = 0; i < processors; i++) {
+				l1[i] = PhysicalMemory.create(intValue(l1Size), intValue(l1Associativity), wordsPerLine, replacementPolicy.stringValue(), seed + i);
+			}
+			PhysicalMemory l2 = PhysicalMemory.create(intValue(l2Size), intValue(l2Associativity), wordsPerLine, replacementPolicy.stringValue(), seed + processors);
+			simulator = new CacheHierarchySimulator(l1, l2, inclusionPolicy.stringValue(),
+					intValue(l1Latency), intValue(l2Latency), intValue(memoryLatency));
+		} catch(IllegalArgumentException e) {
+			throw new IllegalActionException(this, e.getMessage());
+		}
+		hasPrevious = new boolean[processors];
+		previousType = new int[processors];
+		previousData = new int[processors];
+		previousAddress = new int[processors];
+		previousTime = new int[processors];
+	}
+
+	public void fire() throws IllegalActionException {
+		for(int pe = 0; pe < hasPrevious.length; pe++) {
+			if(!instructionsInput.hasToken(pe)) {
+				continue;
+			}
+			RecordToken t = (RecordToken)instructionsInput.get(pe);
+			int type = ((IntToken)t.get("type")).intValue();
+			int data = ((IntToken)t.get("data")).intValue();
+			int address = ((IntToken)t.get("address")).intValue();
+			int time = ((IntToken)t.get("time")).intValue();
+			if(hasPrevious[pe] && type == previousType[pe] && address == previousAddress[pe] && data == previousData[pe] && time == previousTime[pe]) {
+				continue;
+			}
+			hasPrevious[pe] = true;
+			previousType[pe] = type;
+			previousData[pe] = data;
+			previousAddress[pe] = address;
+			previousTime[pe] = time;
+			simulator.access(pe, type, address);
+		}
+	}
+
+	public CacheHierarchySimulator getSimulator() {
+		return simulator;
+	}
+
+	public void wrapup() throws IllegalActionException {
+		System.out.println(getName() + "\n" + simulator.report());
+	}
+
+	private static int intValue(Parameter parameter) throws IllegalActionException {
+		return ((IntToken)parameter.getToken()).intValue();
+	}
+
+	private void setupParameters() throws IllegalActionException, NameDuplicationException {
+		l1Size = new Parameter(this, "l1Size");
+		l1Associativity = new Parameter(this, "l1Associativity");
+		l2Size = new Parameter(this, "l2Size");
+		l2Associativity = new Parameter(this, "l2Associativity");
+		lineSize = new Parameter(this, "lineSize");
+		replacementPolicy = new StringParameter(this, "replacementPolicy");
+		replacementSeed = new Parameter(this, "replacementSeed");
+		inclusionPolicy = new StringParameter(this, "inclusionPolicy");
+		l1Latency = new Parameter(this, "l1Latency");
+		l2Latency = new Parameter(this, "l2Latency");
+		memoryLatency = new Parameter(this, "memoryLatency");
+
+		l1Size.setTypeEquals(BaseType.INT);
+		l1Associativity.setTypeEquals(BaseType.INT);
+		l2Size.setTypeEquals(BaseType.INT);
+		l2Associativity.setTypeEquals(BaseType.INT);
+		lineSize.setTypeEquals(BaseType.INT);
+		replacementSeed.setTypeEquals(BaseType.INT);
+		l1Latency.setTypeEquals(BaseType.INT);
+		l2Latency.setTypeEquals(BaseType.INT);
+		memoryLatency.setTypeEquals(BaseType.INT);
+
+		l1Size.setExpression("128");
+		l1Associativity.setExpression("4");
+		l2Size.setExpression("4096");
+		l2Associativity.setExpression("8");
+		lineSize.setExpression("1");
+		replacementPolicy.setExpression(ReplacementPolicy.LRU);
+		replacementPolicy.addChoice(ReplacementPolicy.FIFO);
+		replacementPolicy.addChoice(ReplacementPolicy.LRU);
+		replacementPolicy.addChoice(ReplacementPolicy.TREE_PLRU);
+		replacementPolicy.addChoice(ReplacementPolicy.RANDOM);
+		replacementPolicy.addChoice(ReplacementPolicy.LFU);
+		replacementPolicy.addChoice(ReplacementPolicy.ARC);
+		replacementSeed.setExpression("1");
+		inclusionPolicy.setExpression(CacheHierarchySimulator.INCLUSIVE);
+		inclusionPolicy.addChoice(CacheHierarchySimulator.INCLUSIVE);
+		inclusionPolicy.addChoice(CacheHierarchySimulator.EXCLUSIVE);
+		inclusionPolicy.addChoice(CacheHierarchySimulator.NINE);
+		l1Latency.setExpression("1");
+		l2Latency.setExpression("10");
+		memoryLatency.setExpression("100");
+	}
+
+}
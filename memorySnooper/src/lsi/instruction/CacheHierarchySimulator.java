@@ -0,0 +1,242 @@
+package lsi.instruction;
+
+/**
+ * Two level cache hierarchy: one private L1 per PE and an L2 shared by all of them.
+ *
+ * Writes are write-allocate, write-back at both levels. The inclusion policy decides how L2 relates to the L1s:
+ * - INCLUSIVE: every line in an L1 is also in L2, an L2 eviction invalidates the line in every L1 (back-invalidation).
+ * - EXCLUSIVE: L2 only holds lines evicted from an L1, a line found in L2 moves up to the L1 that missed.
+ * - NINE: non-inclusive non-exclusive, misses fill both levels and each level evicts on its own.
+ *
+ * All levels must use the same line size.
+ */
+public class CacheHierarchySimulator {
+
+	public static final String INCLUSIVE = "INCLUSIVE";
+	public static final String EXCLUSIVE = "EXCLUSIVE";
+	public static final String NINE = "NINE";
+
+	private PhysicalMemory[] l1;
+	private PhysicalMemory l2;
+	private boolean inclusive;
+	private boolean exclusive;
+	private String inclusion;
+
+	private int l1Latency, l2Latency, memoryLatency;
+
+	// Per PE counters
+	private long[] l1Hits, l1Misses, l2Hits, l2Misses;
+	private long backInvalidations = 0; // L1 lines dropped because L2 evicted them (INCLUSIVE)
+	private long l1Writebacks = 0;      // dirty L1 victims written into L2
+	private long writebacksToMain = 0;  // dirty lines written to main memory
+
+	/**
+	 * @param l1 The private L1 of each PE, indexed by PE
+	 * @param l2 The shared L2
+	 * @param inclusion INCLUSIVE, EXCLUSIVE or NINE
+	 * @param l1Latency Cycles to access an L1
+	 * @param l2Latency Additional cycles to access L2 after an L1 miss
+	 * @param memoryLatency Additional cycles to access main memory after an L2 miss
+	 */
+	public CacheHierarchySimulator(PhysicalMemory[] l1, PhysicalMemory l2, String inclusion, int l1Latency, int l2Latency, int memoryLatency) {
+		for(PhysicalMemory cache : l1) {
+			if(cache.getLineSize() != l2.getLineSize()) {
+				throw new IllegalArgumentException("L1 and L2 must have the same line size");
+			}
+		}
+		if(INCLUSIVE.equalsIgnoreCase(inclusion)) {
+			inclusive = true;
+		} else if(EXCLUSIVE.equalsIgnoreCase(inclusion)) {
+			exclusive = true;
+		} else if(!NINE.equalsIgnoreCase(inclusion)) {
+			throw new IllegalArgumentException("Unknown inclusion policy: " + inclusion);
+		}
+		this.inclusion = inclusion.toUpperCase();
+		this.l1 = l1;
+		this.l2 = l2;
+		this.l1Latency = l1Latency;
+		this.l2Latency = l2Latency;
+		this.memoryLatency = memoryLatency;
+		l1Hits = new long[l1.length];
+		l1Misses = new long[l1.length];
+		l2Hits = new long[l1.length];
+		l2Misses = new long[l1.length];
+	}
+
+	/**
+	 * Simulates the given PE driving the bus with an instruction of the given type at the given address.
+	 */
+	public void access(int pe, int type, int address) {
+		boolean write = type == Instruction.WRITE;
+		PhysicalMemory cache = l1[pe];
+		if(cache.hasAddressLoaded(address)) {
+			l1Hits[pe]++;
+			if(write) {
+				cache.markData(address);
+			}
+			return;
+		}
+		l1Misses[pe]++;
+
+		boolean inL2 = l2.hasAddressLoaded(address);
+		if(inL2) {
+			l2Hits[pe]++;
+		} else {
+			l2Misses[pe]++;
+		}
+
+		if(exclusive) {
+			// The line moves up, keeping its data flag
+			boolean dirty = inL2 && l2.invalidate(address);
+			fillL1(pe, address, write || dirty);
+		} else {
+			if(!inL2) {
+				l2.load(address, false);
+				handleL2Eviction();
+			}
+			fillL1(pe, address, write);
+		}
+	}
+
+	private void fillL1(int pe, int address, boolean isData) {
+		PhysicalMemory cache = l1[pe];
+		cache.load(address, isData);
+		int victim = cache.getLastEvictedAddress();
+		if(victim == -1) {
+			return;
+		}
+		boolean dirty = cache.wasLastEvictedData();
+		if(exclusive) {
+			// Every L1 victim goes down to L2
+			if(dirty) {
+				l1Writebacks++;
+			}
+			l2.load(victim, dirty);
+			handleL2Eviction();
+		} else if(dirty) {
+			l1Writebacks++;
+			if(l2.contains(victim)) {
+				l2.markData(victim);
+			} else {
+				writebacksToMain++; // NINE: L2 already dropped the line, write straight to memory
+			}
+		}
+	}
+
+	private void handleL2Eviction() {
+		int victim = l2.getLastEvictedAddress();
+		if(victim == -1) {
+			return;
+		}
+		if(l2.wasLastEvictedData()) {
+			writebacksToMain++;
+		}
+		if(inclusive) {
+			for(PhysicalMemory cache : l1) {
+				if(cache.contains(victim)) {
+					backInvalidations++;
+					if(cache.invalidate(victim)) {
+						writebacksToMain++;
+					}
+				}
+			}
+		}
+	}
+
+	public int getProcessors() {
+		return l1.length;
+	}
+
+	public long getL1Hits(int pe) {
+		return l1Hits[pe];
+	}
+
+	public long getL1Misses(int pe) {
+		return l1Misses[pe];
+	}
+
+	public long getL2Hits() {
+		return sum(l2Hits);
+	}
+
+	public long getL2Misses() {
+		return sum(l2Misses);
+	}
+
+	public long getBackInvalidations() {
+		return backInvalidations;
+	}
+
+	public long getWritebacksToMain() {
+		return writebacksToMain;
+	}
+
+	/**
+	 * Fraction of the PE accesses that hit its L1.
+	 */
+	public double getL1HitRate(int pe) {
+		return rate(l1Hits[pe], l1Hits[pe] + l1Misses[pe]);
+	}
+
+	/**
+	 * Fraction of the accesses reaching L2 that hit it, over all PEs.
+	 */
+	public double getL2HitRate() {
+		return rate(getL2Hits(), getL2Hits() + getL2Misses());
+	}
+
+	/**
+	 * Average memory access time of the PE in cycles.
+	 */
+	public double getAverageMemoryAccessTime(int pe) {
+		return amat(l1Hits[pe], l2Hits[pe], l2Misses[pe]);
+	}
+
+	/**
+	 * Average memory access time in cycles over all PEs.
+	 */
+	public double getAverageMemoryAccessTime() {
+		return amat(sum(l1Hits), sum(l2Hits), sum(l2Misses));
+	}
+
+	/**
+	 * Formats per-level hit rates and average memory access times, one line per cache.
+	 */
+	public String report() {
+		StringBuilder sb = new StringBuilder();
+		for(int pe = 0; pe < l1.length; pe++) {
+			sb.append("L1[").append(pe).append("] accesses=").append(l1Hits[pe] + l1Misses[pe])
+				.append(" hit-rate=").append(getL1HitRate(pe))
+				.append(" amat=").append(getAverageMemoryAccessTime(pe)).append('\n');
+		}
+		sb.append("L2 ").append(inclusion).append(" accesses=").append(getL2Hits() + getL2Misses())
+			.append(" hit-rate=").append(getL2HitRate())
+			.append(" back-invalidations=").append(backInvalidations)
+			.append(" l1-writebacks=").append(l1Writebacks)
+			.append(" writebacks-to-main=").append(writebacksToMain).append('\n');
+		sb.append("amat=").append(getAverageMemoryAccessTime());
+		return sb.toString();
+	}
+
+	private double amat(long l1HitCount, long l2HitCount, long l2MissCount) {
+		long accesses = l1HitCount + l2HitCount + l2MissCount;
+		if(accesses == 0) {
+			return 0;
+		}
+		double cycles = (double)accesses * l1Latency + (double)(l2HitCount + l2MissCount) * l2Latency + (double)l2MissCount * memoryLatency;
+		return cycles / accesses;
+	}
+
+	private static double rate(long part, long total) {
+		return total == 0 ? 0 : (double)part / total;
+	}
+
+	private static long sum(long[] values) {
+		long total = 0;
+		for(long v : values) {
+			total += v;
+		}
+		return total;
+	}
+
+}
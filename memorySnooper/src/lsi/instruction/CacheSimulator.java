@@ -0,0 +1,280 @@
+package lsi.instruction;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The cache logic behind the Cache actor, free of any Ptolemy dependency so it can also be driven directly
+ * from an address stream.
+ *
+ * Each access takes the instruction type and address the PE drives the bus with. Statistics are kept in a
+ * primitive array indexed by CacheStat, so an access does not allocate.
+ *
+ * An optional Prefetcher is told about every access. Its lines are counted under PREFETCH and WORDS_PREFETCHED rather
+ * than LINE_FILL and WORDS_FROM_MAIN, so the demand statistics stay comparable with a run without prefetching.
+ */
+public class CacheSimulator {
+
+	private PhysicalMemory memory;
+	private WritePolicy writePolicy;
+	private long[] stats = new long[CacheStat.ALL.length];
+	private Prefetcher prefetcher; // null when not prefetching
+	private int[] prefetches; // lines returned by the prefetcher
+	private boolean[] prefetched; // lines loaded by the prefetcher and not used since, indexed by line
+	private int previousAddress = -1;
+
+	public CacheSimulator(PhysicalMemory memory, WritePolicy writePolicy) {
+		this.memory = memory;
+		this.writePolicy = writePolicy;
+	}
+
+	/**
+	 * Returns the number of lines in the address space, the bound prefetchers are built with.
+	 */
+	public int getLines() {
+		return (AddressProfiler.ADDRESS_SPACE + memory.getLineSize() - 1) / memory.getLineSize();
+	}
+
+	/**
+	 * Sets the prefetcher told about every access, null disables prefetching.
+	 */
+	public void setPrefetcher(Prefetcher prefetcher) {
+		this.prefetcher = prefetcher;
+		prefetches = (prefetcher != null) ? new int[prefetcher.maxLines()] : null;
+		prefetched = new boolean[getLines()];
+	}
+
+	public Prefetcher getPrefetcher() {
+		return prefetcher;
+	}
+
+	/**
+	 * Simulates the PE driving the bus with an instruction of the given type at the given address.
+	 */
+	public void access(int type, int address) {
+		if(prefetcher == null) {
+			demand(type, address);
+			return;
+		}
+		int line = getLine(address);
+		// The first use of a prefetched line is a hit the prefetcher gets the credit for
+		boolean prefetchHit = line < prefetched.length && prefetched[line] && memory.contains(address);
+		if(prefetchHit) {
+			prefetched[line] = false;
+			stats[CacheStat.PREFETCH_HIT.ordinal()]++;
+		}
+		boolean miss = demand(type, address);
+		prefetch(line, previousAddress, miss || prefetchHit);
+		previousAddress = address;
+	}
+
+	/**
+	 * Runs an access against the cache, returns true if it missed.
+	 */
+	private boolean demand(int type, int address) {
+		if(writePolicy.enabled) {
+			// using writing policies affects the effects of write instructuions
+			if(type == Instruction.WRITE) {
+				return simulateWrite(address);
+			} else {
+				// regardless of wheter it is a read, jump, execute instruction or data to read we need to fectch a memory location from memory
+				return simulateFetch(address);
+			}
+		} else {
+			// When not using write policies we simply write to cache the data that the write instruction writes
+			// Instructions that read that data may generate a cache hit because of that
+			if(type == Instruction.WRITE) {
+				boolean miss = !memory.contains(address);
+				if(miss) {
+					countLineFill(); // the rest of the line comes from main memory
+				}
+				load(address, false);
+				return miss;
+			} else {
+				if(memory.hasAddressLoaded(address)) {
+					stats[CacheStat.READ_HIT.ordinal()]++;
+				} else if(takePrefetched(address)) {
+					return false;
+				} else {
+					stats[CacheStat.READ_MISS.ordinal()]++;
+					countLineFill();
+					load(address, false);
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private boolean simulateFetch(int address) {
+		if(memory.hasAddressLoaded(address)) {
+			stats[CacheStat.READ_HIT.ordinal()]++;
+		} else if(!takePrefetched(address)) {
+			stats[CacheStat.READ_MISS.ordinal()]++;
+			simulateLoadWithWritePolicies(address, false);
+			return true;
+		}
+		return false;
+	}
+
+	private boolean simulateWrite(int address) {
+		if(memory.hasAddressLoaded(address)) {
+			stats[CacheStat.WRITE_HIT.ordinal()]++;
+			if(writePolicy.writeThrough) {
+				// Write-through always writes both to cache and main memory to ensure consistency
+				countWriteToMain(1);
+			}
+			// If using write back we just update cache so we dont need to do anything
+			return false;
+		} else {
+			stats[CacheStat.WRITE_MISS.ordinal()]++;
+			if(writePolicy.writeAllocate) {
+				// Write Allocate both load to cache and update main
+				simulateLoadWithWritePolicies(address, true);
+			}
+			// Write Around just writes to main, write allocate writes both to cache and main
+			countWriteToMain(1);
+			return true;
+		}
+	}
+
+	/**
+	 * Simulated the effects of either loading data or an instruction which are NOT already in the cache.
+	 * @param address The address of the instruction or data we need to fetch or load.
+	 * @param isData True if loading data, false otherwise.
+	 */
+	private void simulateLoadWithWritePolicies(int address, boolean isData) {
+		loadWithWriteBack(address, isData);
+		stats[CacheStat.READ_FROM_MAIN.ordinal()]++;
+		countLineFill();
+	}
+
+	/**
+	 * Loads the line holding the address, writing back the line it overwrites if the write policies ask for it.
+	 */
+	private void loadWithWriteBack(int address, boolean isData) {
+		if(load(address, isData) && writePolicy.enabled && !writePolicy.writeThrough) {
+			// Cached line flagged as data was overwritten, write back transfers the whole line before it is overwritten
+			countWriteToMain(memory.getLineSize());
+		}
+	}
+
+	/**
+	 * Loads the line holding the address and forgets the line it overwrote had been prefetched.
+	 */
+	private boolean load(int address, boolean isData) {
+		boolean dataWasOverwritten = memory.load(address, isData);
+		int evicted = memory.getLastEvictedAddress();
+		if(prefetcher != null && evicted != -1 && getLine(evicted) < prefetched.length) {
+			prefetched[getLine(evicted)] = false;
+		}
+		return dataWasOverwritten;
+	}
+
+	/**
+	 * Serves a read miss from the prefetcher's own buffers, if it holds the line.
+	 * The line moves into the cache without a transfer from main memory and the access counts as a hit.
+	 */
+	private boolean takePrefetched(int address) {
+		if(prefetcher == null || prefetcher.fillsCache() || !prefetcher.take(getLine(address))) {
+			return false;
+		}
+		stats[CacheStat.READ_HIT.ordinal()]++;
+		stats[CacheStat.PREFETCH_HIT.ordinal()]++;
+		loadWithWriteBack(address, false);
+		return true;
+	}
+
+	/**
+	 * Asks the prefetcher for the lines to fetch after an access and fetches them.
+	 * Lines already cached are skipped when the prefetcher fills the cache, its own buffers cannot tell.
+	 */
+	private void prefetch(int line, int key, boolean trigger) {
+		int n = prefetcher.access(line, key, trigger, prefetches);
+		int lineSize = memory.getLineSize();
+		for(int i = 0; i < n; i++) {
+			int address = prefetches[i] * lineSize;
+			if(prefetcher.fillsCache()) {
+				if(memory.contains(address)) {
+					continue;
+				}
+				loadWithWriteBack(address, false);
+				prefetched[prefetches[i]] = true;
+			}
+			stats[CacheStat.PREFETCH.ordinal()]++;
+			stats[CacheStat.WORDS_PREFETCHED.ordinal()] += lineSize;
+		}
+	}
+
+	/**
+	 * A whole line was read from main memory into the cache.
+	 */
+	private void countLineFill() {
+		stats[CacheStat.LINE_FILL.ordinal()]++;
+		stats[CacheStat.WORDS_FROM_MAIN.ordinal()] += memory.getLineSize();
+	}
+
+	/**
+	 * The cache wrote to main memory.
+	 * @param words Number of words transferred, one for a single word write or the line size for a write back
+	 */
+	private void countWriteToMain(int words) {
+		stats[CacheStat.WRITE_TO_MAIN.ordinal()]++;
+		stats[CacheStat.WORDS_TO_MAIN.ordinal()] += words;
+	}
+
+	/**
+	 * Reports how well the prefetcher did.
+	 * Accuracy is the share of prefetched lines that were used, coverage the share of would-be misses it removed, and
+	 * extra traffic the words of prefetched lines that were never used, also relative to the demand traffic.
+	 */
+	public String prefetchReport() {
+		long prefetches = stats[CacheStat.PREFETCH.ordinal()];
+		long useful = stats[CacheStat.PREFETCH_HIT.ordinal()];
+		long misses = stats[CacheStat.READ_MISS.ordinal()] + stats[CacheStat.WRITE_MISS.ordinal()];
+		long extra = stats[CacheStat.WORDS_PREFETCHED.ordinal()] - useful * memory.getLineSize();
+		long demand = stats[CacheStat.WORDS_FROM_MAIN.ordinal()] + stats[CacheStat.WORDS_TO_MAIN.ordinal()];
+		return String.format("prefetch: issued=%d useful=%d accuracy=%.3f coverage=%.3f extra-words=%d extra-traffic=%.3f",
+				prefetches, useful,
+				(prefetches == 0) ? 0.0 : (double)useful / prefetches,
+				(useful + misses == 0) ? 0.0 : (double)useful / (useful + misses),
+				extra,
+				(demand == 0) ? 0.0 : (double)extra / demand);
+	}
+
+	public long get(CacheStat stat) {
+		return stats[stat.ordinal()];
+	}
+
+	/**
+	 * Returns every statistic by label, in CacheStat order.
+	 */
+	public Map<String, Long> getStats() {
+		Map<String, Long> result = new LinkedHashMap<String, Long>();
+		for(CacheStat stat : CacheStat.ALL) {
+			result.put(stat.label, stats[stat.ordinal()]);
+		}
+		return result;
+	}
+
+	public PhysicalMemory getMemory() {
+		return memory;
+	}
+
+	public WritePolicy getWritePolicy() {
+		return writePolicy;
+	}
+
+	public void setWritePolicy(WritePolicy writePolicy) {
+		this.writePolicy = writePolicy;
+	}
+
+	private int getLine(int address) {
+		return (address & Integer.MAX_VALUE) / memory.getLineSize();
+	}
+
+	public String toString() {
+		return getStats().toString();
+	}
+
+}
@@ -0,0 +1,30 @@
+package lsi.instruction;
+
+/**
+ * The statistics collected by a cache simulation, each with the label it is reported under.
+ */
+public enum CacheStat {
+
+	READ_HIT("read-hit"),             // Fetches or read instructions that DONT need to access main memory
+	READ_MISS("read-miss"),           // Fetches or read instructions that need to access main memory
+	WRITE_HIT("write-hit"),           // Write instructions that finds address in the cache
+	WRITE_MISS("write-miss"),         // Write instructions that DONT finds address in the cache
+	WRITE_TO_MAIN("write-to-main"),   // number of times the PE had to write to main memory
+	READ_FROM_MAIN("read-from-main"), // number of times the PE had to read from main memory
+	LINE_FILL("line-fill"),           // number of lines loaded from main memory, also counts lines filled without write policies
+	WORDS_FROM_MAIN("words-from-main"), // words transferred by line fills
+	WORDS_TO_MAIN("words-to-main"),   // words transferred by writes to main memory
+	PREFETCH("prefetch"),             // lines fetched by the prefetcher, not counted in line-fill
+	PREFETCH_HIT("prefetch-hit"),     // demand accesses served by a prefetched line on its first use
+	WORDS_PREFETCHED("words-prefetched"); // words transferred by prefetches
+
+	// values() clones the array on every call, keep one copy around
+	static final CacheStat[] ALL = values();
+
+	public final String label;
+
+	private CacheStat(String label) {
+		this.label = label;
+	}
+
+}
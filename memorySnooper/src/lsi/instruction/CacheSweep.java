@@ -0,0 +1,293 @@
+package lsi.instruction;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Replays one recorded address stream through a grid of cache configurations in parallel.
+ *
+ * Every configuration gives each PE of the trace its own CacheSimulator, as the Cache actors of the model do,
+ * and reports the CacheStat counters summed over the PEs. Configurations share nothing but the read-only trace,
+ * so they are split across a fork/join pool with no locking and the sweep scales with the number of cores.
+ *
+ * Usage: java lsi.instruction.CacheSweep input [key=value...]
+ * where input is either a trace saved by AddressTrace or a memory.txt image, which is then run through the
+ * HeadlessSimulator to record the stream. Keys, lists are comma separated:
+ *   sizes=128,256,512  associativities=0,1,2,4  lineSizes=1  policies=FIFO,LRU
+ *   writeHit=0,1  writeMiss=2,3  usingWritePolicies=true  seed=1
+ *   format=csv|json  out=file  threads=n  cycles=40001  saveTrace=file
+ */
+public class CacheSweep {
+
+	/**
+	 * One point of the grid and, once run, its counters.
+	 */
+	public static class Configuration {
+		public final int size;
+		public final int associativity;
+		public final int lineSize;
+		public final String replacementPolicy;
+		public final boolean usingWritePolicies;
+		public final int writeHitPolicy;
+		public final int writeMissPolicy;
+		public final long seed;
+		private long[] stats;
+
+		public Configuration(int size, int associativity, int lineSize, String replacementPolicy, boolean usingWritePolicies, int writeHitPolicy, int writeMissPolicy, long seed) {
+			this.size = size;
+			this.associativity = associativity;
+			this.lineSize = lineSize;
+			this.replacementPolicy = replacementPolicy;
+			this.usingWritePolicies = usingWritePolicies;
+			this.writeHitPolicy = writeHitPolicy;
+			this.writeMissPolicy = writeMissPolicy;
+			this.seed = seed;
+		}
+
+		/**
+		 * Returns the summed counters indexed by CacheStat ordinal, null before the sweep ran.
+		 */
+		public long[] getStats() {
+			return stats;
+		}
+
+		public long get(CacheStat stat) {
+			return stats[stat.ordinal()];
+		}
+
+		private CacheSimulator newSimulator() {
+			PhysicalMemory memory = PhysicalMemory.create(size, associativity, lineSize, replacementPolicy, seed);
+			return new CacheSimulator(memory, new WritePolicy(usingWritePolicies, writeHitPolicy, writeMissPolicy));
+		}
+
+		private void run(AddressTrace trace) {
+			CacheSimulator[] caches = new CacheSimulator[trace.getProcessors()];
+			for(int i = 0; i < caches.length; i++) {
+				caches[i] = newSimulator();
+			}
+			int length = trace.length();
+			for(int i = 0; i < length; i++) {
+				caches[trace.getPe(i)].access(trace.getType(i), trace.getAddress(i));
+			}
+			long[] total = new long[CacheStat.ALL.length];
+			for(CacheSimulator cache : caches) {
+				for(CacheStat stat : CacheStat.ALL) {
+					total[stat.ordinal()] += cache.get(stat);
+				}
+			}
+			stats = total;
+		}
+	}
+
+	/**
+	 * Runs a range of configurations, halving it until a single one is left.
+	 */
+	private static class SweepTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final AddressTrace trace;
+		private final Configuration[] configurations;
+		private final int from;
+		private final int to;
+
+		SweepTask(AddressTrace trace, Configuration[] configurations, int from, int to) {
+			this.trace = trace;
+			this.configurations = configurations;
+			this.from = from;
+			this.to = to;
+		}
+
+		protected void compute() {
+			if(to - from == 1) {
+				configurations[from].run(trace);
+				return;
+			}
+			int middle = (from + to) >>> 1;
+			invokeAll(new SweepTask(trace, configurations, from, middle), new SweepTask(trace, configurations, middle, to));
+		}
+	}
+
+	private AddressTrace trace;
+	private ForkJoinPool pool;
+
+	/**
+	 * @param trace The stream every configuration replays
+	 * @param threads Parallelism of the pool, 0 for one thread per core
+	 */
+	public CacheSweep(AddressTrace trace, int threads) {
+		this.trace = trace;
+		this.pool = (threads > 0) ? new ForkJoinPool(threads) : new ForkJoinPool();
+	}
+
+	/**
+	 * Builds the cross product of the given values, leaving out the geometries PhysicalMemory.create rejects.
+	 */
+	public static List<Configuration> grid(int[] sizes, int[] associativities, int[] lineSizes, String[] policies, boolean usingWritePolicies, int[] writeHitPolicies, int[] writeMissPolicies, long seed) {
+		List<Configuration> configurations = new ArrayList<Configuration>();
+		for(int size : sizes) {
+			for(int associativity : associativities) {
+				for(int lineSize : lineSizes) {
+					for(String policy : policies) {
+						for(int writeHit : writeHitPolicies) {
+							for(int writeMiss : writeMissPolicies) {
+								Configuration configuration = new Configuration(size, associativity, lineSize, policy, usingWritePolicies, writeHit, writeMiss, seed);
+								try {
+									configuration.newSimulator();
+								} catch(IllegalArgumentException e) {
+									System.err.println("skipping size=" + size + " associativity=" + associativity + " lineSize=" + lineSize + " " + policy + " writeHit=" + writeHit + " writeMiss=" + writeMiss + ": " + e.getMessage());
+									continue;
+								}
+								configurations.add(configuration);
+							}
+						}
+					}
+				}
+			}
+		}
+		return configurations;
+	}
+
+	/**
+	 * Runs every configuration over the trace, returns once all of them have their counters.
+	 */
+	public void run(List<Configuration> configurations) {
+		if(configurations.isEmpty()) {
+			return;
+		}
+		Configuration[] array = configurations.toArray(new Configuration[configurations.size()]);
+		pool.invoke(new SweepTask(trace, array, 0, array.length));
+	}
+
+	public void shutdown() {
+		pool.shutdown();
+	}
+
+	public static void writeCsv(List<Configuration> configurations, Writer writer) {
+		PrintWriter out = new PrintWriter(writer);
+		out.print("size,associativity,lineSize,replacementPolicy,usingWritePolicies,writeHitPolicy,writeMissPolicy");
+		for(CacheStat stat : CacheStat.ALL) {
+			out.print("," + stat.label);
+		}
+		out.println();
+		for(Configuration c : configurations) {
+			out.print(c.size + "," + c.associativity + "," + c.lineSize + "," + c.replacementPolicy + "," + c.usingWritePolicies + "," + c.writeHitPolicy + "," + c.writeMissPolicy);
+			for(CacheStat stat : CacheStat.ALL) {
+				out.print("," + c.get(stat));
+			}
+			out.println();
+		}
+		out.flush();
+	}
+
+	public static void writeJson(List<Configuration> configurations, Writer writer) {
+		PrintWriter out = new PrintWriter(writer);
+		out.println("[");
+		for(int i = 0; i < configurations.size(); i++) {
+			Configuration c = configurations.get(i);
+			out.print("  {\"size\": " + c.size + ", \"associativity\": " + c.associativity + ", \"lineSize\": " + c.lineSize
+					+ ", \"replacementPolicy\": \"" + c.replacementPolicy + "\", \"usingWritePolicies\": " + c.usingWritePolicies
+					+ ", \"writeHitPolicy\": " + c.writeHitPolicy + ", \"writeMissPolicy\": " + c.writeMissPolicy + ", \"stats\": {");
+			for(CacheStat stat : CacheStat.ALL) {
+				out.print((stat.ordinal() > 0 ? ", " : "") + "\"" + stat.label + "\": " + c.get(stat));
+			}
+			out.println("}}" + (i < configurations.size() - 1 ? "," : ""));
+		}
+		out.println("]");
+		out.flush();
+	}
+
+	public static void main(String[] args) throws IOException {
+		if(args.length < 1) {
+			System.err.println("Usage: java lsi.instruction.CacheSweep traceOrMemoryFile [sizes=..] [associativities=..] [lineSizes=..] [policies=..] [writeHit=..] [writeMiss=..] [usingWritePolicies=true] [seed=1] [format=csv|json] [out=file] [threads=n] [cycles=n] [saveTrace=file]");
+			System.exit(1);
+		}
+		int[] sizes = {128};
+		int[] associativities = {0};
+		int[] lineSizes = {1};
+		String[] policies = {ReplacementPolicy.FIFO};
+		int[] writeHit = {WritePolicy.WRITE_BACK, WritePolicy.WRITE_THROUGH};
+		int[] writeMiss = {WritePolicy.WRITE_AROUND, WritePolicy.WRITE_ALLOCATE};
+		boolean usingWritePolicies = true;
+		long seed = 1; // the default replacementSeed of Cache
+		String format = "csv";
+		String out = null;
+		int threads = 0;
+		long cycles = 40001;
+		String saveTrace = null;
+		for(int i = 1; i < args.length; i++) {
+			int split = args[i].indexOf('=');
+			if(split < 0) {
+				throw new IllegalArgumentException("Expected key=value, got " + args[i]);
+			}
+			String key = args[i].substring(0, split);
+			String value = args[i].substring(split + 1);
+			if(key.equals("sizes")) {
+				sizes = parseInts(value);
+			} else if(key.equals("associativities")) {
+				associativities = parseInts(value);
+			} else if(key.equals("lineSizes")) {
+				lineSizes = parseInts(value);
+			} else if(key.equals("policies")) {
+				policies = value.split(",");
+			} else if(key.equals("writeHit")) {
+				writeHit = parseInts(value);
+			} else if(key.equals("writeMiss")) {
+				writeMiss = parseInts(value);
+			} else if(key.equals("usingWritePolicies")) {
+				usingWritePolicies = Boolean.parseBoolean(value);
+			} else if(key.equals("seed")) {
+				seed = Long.parseLong(value);
+			} else if(key.equals("format")) {
+				format = value;
+			} else if(key.equals("out")) {
+				out = value;
+			} else if(key.equals("threads")) {
+				threads = Integer.parseInt(value);
+			} else if(key.equals("cycles")) {
+				cycles = Long.parseLong(value);
+			} else if(key.equals("saveTrace")) {
+				saveTrace = value;
+			} else {
+				throw new IllegalArgumentException("Unknown option " + key);
+			}
+		}
+
+		AddressTrace trace = AddressTrace.open(args[0], cycles);
+		if(saveTrace != null) {
+			trace.save(saveTrace);
+		}
+
+		List<Configuration> configurations = grid(sizes, associativities, lineSizes, policies, usingWritePolicies, writeHit, writeMiss, seed);
+		CacheSweep sweep = new CacheSweep(trace, threads);
+		long start = System.nanoTime();
+		sweep.run(configurations);
+		double seconds = (System.nanoTime() - start) / 1e9;
+		sweep.shutdown();
+
+		Writer writer = (out != null) ? new FileWriter(out) : new PrintWriter(System.out);
+		if(format.equals("json")) {
+			writeJson(configurations, writer);
+		} else {
+			writeCsv(configurations, writer);
+		}
+		if(out != null) {
+			writer.close();
+		}
+		System.err.println(configurations.size() + " configurations over " + trace.length() + " accesses in " + seconds + " s on " + sweep.pool.getParallelism() + " threads");
+	}
+
+	private static int[] parseInts(String value) {
+		String[] parts = value.split(",");
+		int[] result = new int[parts.length];
+		for(int i = 0; i < parts.length; i++) {
+			result[i] = Integer.parseInt(parts[i].trim());
+		}
+		return result;
+	}
+
+}
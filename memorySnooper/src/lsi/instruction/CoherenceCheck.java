@@ -0,0 +1,137 @@
+package lsi.instruction;
+
+/**
+ * Deterministic checks of the MESI and MOESI transitions of CoherenceSimulator, on caches of a few one word lines:
+ * - a read miss fills E alone and S when another cache holds the line, which an E or M owner supplies
+ * - a remote read of an M line makes it S with a writeback under MESI, O without one under MOESI
+ * - a write to an S line is an upgrade that invalidates the other copies, the next miss on them is a coherence miss
+ * - a write miss takes the line from an M owner cache-to-cache and invalidates it
+ * - evicting an M line writes it back, and a later miss on it is not a coherence miss
+ *
+ * Usage: java lsi.instruction.CoherenceCheck
+ * prints one line per failed check and exits with status 1 if any failed.
+ */
+public class CoherenceCheck {
+
+	private static final int A = 100;
+	private static final int B = 200;
+
+	private static int failures = 0;
+
+	public static void main(String[] args) {
+		readMissFillsExclusiveThenShared();
+		remoteReadOfModified(CoherenceSimulator.MESI, CoherenceSimulator.SHARED, 1);
+		remoteReadOfModified(CoherenceSimulator.MOESI, CoherenceSimulator.OWNED, 0);
+		ownedLineKeepsSupplying();
+		upgradeInvalidatesOtherCopies();
+		writeMissTakesModifiedLine();
+		evictionWritesBackModifiedLine();
+		System.out.println(failures == 0 ? "all coherence checks passed" : failures + " coherence checks failed");
+		System.exit(failures == 0 ? 0 : 1);
+	}
+
+	private static void readMissFillsExclusiveThenShared() {
+		CoherenceSimulator c = simulator(CoherenceSimulator.MESI, 2, 4);
+		c.access(0, Instruction.READ, A);
+		expect("first read miss fills E", CoherenceSimulator.EXCLUSIVE, c.getState(0, A));
+		c.access(1, Instruction.READ, A);
+		expect("remote read downgrades E to S", CoherenceSimulator.SHARED, c.getState(0, A));
+		expect("read miss of a held line fills S", CoherenceSimulator.SHARED, c.getState(1, A));
+		expect("E owner supplies the line", 1, c.getCacheToCacheTransfers());
+		c.access(0, Instruction.READ, A);
+		expect("read of an S line hits", 1, c.getReadHits(0));
+		expect("read misses of PE 0", 1, c.getReadMisses(0));
+		expect("no writeback of clean lines", 0, c.getWritebacks());
+	}
+
+	private static void remoteReadOfModified(String protocol, byte ownerState, long writebacks) {
+		CoherenceSimulator c = simulator(protocol, 2, 4);
+		c.access(0, Instruction.WRITE, A);
+		expect(protocol + " write miss fills M", CoherenceSimulator.MODIFIED, c.getState(0, A));
+		c.access(1, Instruction.READ, A);
+		expect(protocol + " remote read of an M line", ownerState, c.getState(0, A));
+		expect(protocol + " reader fills S", CoherenceSimulator.SHARED, c.getState(1, A));
+		expect(protocol + " M owner supplies the line", 1, c.getCacheToCacheTransfers());
+		expect(protocol + " writebacks on the remote read", writebacks, c.getWritebacks());
+	}
+
+	private static void ownedLineKeepsSupplying() {
+		CoherenceSimulator c = simulator(CoherenceSimulator.MOESI, 3, 4);
+		c.access(0, Instruction.WRITE, A);
+		c.access(1, Instruction.READ, A);
+		c.access(2, Instruction.READ, A);
+		expect("O owner stays O", CoherenceSimulator.OWNED, c.getState(0, A));
+		expect("O owner supplies every reader", 2, c.getCacheToCacheTransfers());
+		c.access(0, Instruction.WRITE, A);
+		expect("write to an O line is an upgrade", CoherenceSimulator.MODIFIED, c.getState(0, A));
+		expect("upgrade invalidates both readers", 2, c.getInvalidations());
+		expect("upgrade is a write hit", 1, c.getWriteHits(0));
+		expect("dirty line never written back", 0, c.getWritebacks());
+	}
+
+	private static void upgradeInvalidatesOtherCopies() {
+		PhysicalMemory[] caches = caches(2, 4);
+		CoherenceSimulator c = new CoherenceSimulator(caches, CoherenceSimulator.MESI);
+		c.access(0, Instruction.READ, A);
+		c.access(1, Instruction.READ, A);
+		c.access(1, Instruction.WRITE, A);
+		expect("writer of an S line ends M", CoherenceSimulator.MODIFIED, c.getState(1, A));
+		expect("remote write invalidates the copy", CoherenceSimulator.INVALID, c.getState(0, A));
+		expect("invalidated copy leaves the cache", false, caches[0].contains(A));
+		expect("one invalidation", 1, c.getInvalidations());
+		expect("write to S is a write hit", 1, c.getWriteHits(1));
+		c.access(0, Instruction.READ, A);
+		expect("miss on an invalidated line is a coherence miss", 1, c.getCoherenceMisses(0));
+		expect("M owner supplies the re-read", 2, c.getCacheToCacheTransfers());
+		expect("MESI owner writes back while supplying", 1, c.getWritebacks());
+		expect("both copies end S", CoherenceSimulator.SHARED, c.getState(1, A));
+	}
+
+	private static void writeMissTakesModifiedLine() {
+		CoherenceSimulator c = simulator(CoherenceSimulator.MESI, 2, 4);
+		c.access(0, Instruction.WRITE, A);
+		c.access(1, Instruction.WRITE, A);
+		expect("write miss takes the line M", CoherenceSimulator.MODIFIED, c.getState(1, A));
+		expect("previous M owner is invalidated", CoherenceSimulator.INVALID, c.getState(0, A));
+		expect("M owner hands the line over", 1, c.getCacheToCacheTransfers());
+		expect("write misses of PE 1", 1, c.getWriteMisses(1));
+		expect("one invalidation", 1, c.getInvalidations());
+	}
+
+	private static void evictionWritesBackModifiedLine() {
+		CoherenceSimulator c = simulator(CoherenceSimulator.MESI, 2, 1);
+		c.access(0, Instruction.WRITE, A);
+		c.access(0, Instruction.READ, B);
+		expect("evicting an M line writes it back", 1, c.getWritebacks());
+		expect("evicted line is invalid", CoherenceSimulator.INVALID, c.getState(0, A));
+		c.access(0, Instruction.READ, A);
+		expect("miss on an evicted line is not a coherence miss", 0, c.getCoherenceMisses(0));
+	}
+
+	private static CoherenceSimulator simulator(String protocol, int processors, int lines) {
+		return new CoherenceSimulator(caches(processors, lines), protocol);
+	}
+
+	private static PhysicalMemory[] caches(int processors, int lines) {
+		PhysicalMemory[] caches = new PhysicalMemory[processors];
+		for(int pe = 0; pe < processors; pe++) {
+			caches[pe] = new PhysicalMemory(lines);
+		}
+		return caches;
+	}
+
+	private static void expect(String check, long expected, long actual) {
+		if(expected != actual) {
+			System.out.println("FAIL " + check + ": expected " + expected + ", got " + actual);
+			failures++;
+		}
+	}
+
+	private static void expect(String check, boolean expected, boolean actual) {
+		if(expected != actual) {
+			System.out.println("FAIL " + check + ": expected " + expected + ", got " + actual);
+			failures++;
+		}
+	}
+
+}
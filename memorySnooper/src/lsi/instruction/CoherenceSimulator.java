@@ -0,0 +1,242 @@
+package lsi.instruction;
+
+/**
+ * Snooping coherence between the private caches of the PEs, with the MESI or the MOESI protocol.
+ *
+ * Every access is a bus transaction that all the other caches observe:
+ * - a read miss (BusRd) finds the line in the other caches, an owner (M, O or E) supplies it cache-to-cache.
+ *   Under MESI a modified owner writes the line back and drops to S, under MOESI it keeps it dirty as O.
+ * - a write miss (BusRdX) or a write to a shared line (BusUpgr) invalidates every other copy.
+ *
+ * Line states are kept in byte arrays covering the 16-bit address space, one per cache. A miss on a line
+ * the cache lost to another PE's write is counted as a coherence miss.
+ */
+public class CoherenceSimulator {
+
+	public static final String MESI = "MESI";
+	public static final String MOESI = "MOESI";
+
+	// Line states
+	static final byte INVALID = 0;
+	static final byte SHARED = 1;
+	static final byte EXCLUSIVE = 2;
+	static final byte OWNED = 3;
+	static final byte MODIFIED = 4;
+
+	private PhysicalMemory[] caches;
+	private byte[][] state;               // [pe][line]
+	private boolean[][] lostToInvalidation; // [pe][line], set when a remote write invalidated the line
+	private boolean moesi;
+	private String protocol;
+	private int lineSize;
+
+	// Per PE counters
+	private long[] readHits, readMisses, writeHits, writeMisses, coherenceMisses, upgrades;
+	private long invalidations = 0;          // remote copies invalidated by writes
+	private long cacheToCacheTransfers = 0;  // misses served by another cache
+	private long writebacks = 0;             // dirty lines written to main memory
+
+	/**
+	 * @param caches The private cache of each PE, indexed by PE. All must use the same line size.
+	 * @param protocol MESI or MOESI
+	 */
+	public CoherenceSimulator(PhysicalMemory[] caches, String protocol) {
+		if(MOESI.equalsIgnoreCase(protocol)) {
+			moesi = true;
+		} else if(!MESI.equalsIgnoreCase(protocol)) {
+			throw new IllegalArgumentException("Unknown coherence protocol: " + protocol);
+		}
+		this.protocol = protocol.toUpperCase();
+		this.caches = caches;
+		lineSize = caches[0].getLineSize();
+		int lines = (AddressProfiler.ADDRESS_SPACE + lineSize - 1) / lineSize;
+		state = new byte[caches.length][];
+		lostToInvalidation = new boolean[caches.length][];
+		for(int pe = 0; pe < caches.length; pe++) {
+			if(caches[pe].getLineSize() != lineSize) {
+				throw new IllegalArgumentException("All coherent caches must have the same line size");
+			}
+			state[pe] = new byte[lines];
+			lostToInvalidation[pe] = new boolean[lines];
+		}
+		readHits = new long[caches.length];
+		readMisses = new long[caches.length];
+		writeHits = new long[caches.length];
+		writeMisses = new long[caches.length];
+		coherenceMisses = new long[caches.length];
+		upgrades = new long[caches.length];
+	}
+
+	/**
+	 * Simulates the bus transaction of the given PE, an instruction of the given type at the given address.
+	 */
+	public void access(int pe, int type, int address) {
+		int line = (address & 0xFFFF) / lineSize;
+		if(type == Instruction.WRITE) {
+			write(pe, address, line);
+		} else {
+			read(pe, address, line);
+		}
+	}
+
+	private void read(int pe, int address, int line) {
+		if(state[pe][line] != INVALID) {
+			caches[pe].hasAddressLoaded(address); // let the replacement policy see the hit
+			readHits[pe]++;
+			return;
+		}
+		readMisses[pe]++;
+		countCoherenceMiss(pe, line);
+
+		// BusRd: owners supply the line, every valid copy ends up shared
+		boolean shared = false;
+		for(int other = 0; other < caches.length; other++) {
+			byte s = state[other][line];
+			if(other == pe || s == INVALID) {
+				continue;
+			}
+			shared = true;
+			if(s == MODIFIED || s == OWNED || s == EXCLUSIVE) {
+				cacheToCacheTransfers++;
+			}
+			if(s == MODIFIED) {
+				if(moesi) {
+					state[other][line] = OWNED; // keeps the dirty line and keeps supplying it
+				} else {
+					writebacks++;               // flush while supplying
+					state[other][line] = SHARED;
+				}
+			} else if(s == EXCLUSIVE) {
+				state[other][line] = SHARED;
+			}
+		}
+		fill(pe, address, line, shared ? SHARED : EXCLUSIVE);
+	}
+
+	private void write(int pe, int address, int line) {
+		byte s = state[pe][line];
+		if(s == MODIFIED || s == EXCLUSIVE) {
+			caches[pe].hasAddressLoaded(address);
+			writeHits[pe]++;
+			state[pe][line] = MODIFIED;
+			return;
+		}
+		if(s == SHARED || s == OWNED) {
+			// BusUpgr: we already have the data, only the other copies have to go
+			caches[pe].hasAddressLoaded(address);
+			writeHits[pe]++;
+			upgrades[pe]++;
+			invalidateOthers(pe, address, line, false);
+			state[pe][line] = MODIFIED;
+			return;
+		}
+		writeMisses[pe]++;
+		countCoherenceMiss(pe, line);
+		// BusRdX: fetch the line and invalidate every other copy
+		invalidateOthers(pe, address, line, true);
+		fill(pe, address, line, MODIFIED);
+	}
+
+	private void invalidateOthers(int pe, int address, int line, boolean supplied) {
+		boolean transferred = false;
+		for(int other = 0; other < caches.length; other++) {
+			byte s = state[other][line];
+			if(other == pe || s == INVALID) {
+				continue;
+			}
+			if(supplied && !transferred && (s == MODIFIED || s == OWNED || s == EXCLUSIVE)) {
+				cacheToCacheTransfers++; // the dirty or exclusive copy is handed over instead of read from memory
+				transferred = true;
+			}
+			caches[other].invalidate(address);
+			state[other][line] = INVALID;
+			lostToInvalidation[other][line] = true;
+			invalidations++;
+		}
+	}
+
+	private void fill(int pe, int address, int line, byte newState) {
+		PhysicalMemory cache = caches[pe];
+		cache.load(address, newState == MODIFIED);
+		int victim = cache.getLastEvictedAddress();
+		if(victim != -1) {
+			int victimLine = victim / lineSize;
+			if(state[pe][victimLine] == MODIFIED || state[pe][victimLine] == OWNED) {
+				writebacks++;
+			}
+			state[pe][victimLine] = INVALID;
+			lostToInvalidation[pe][victimLine] = false; // from now on a miss on it is a capacity or conflict miss
+		}
+		state[pe][line] = newState;
+		lostToInvalidation[pe][line] = false;
+	}
+
+	private void countCoherenceMiss(int pe, int line) {
+		if(lostToInvalidation[pe][line]) {
+			coherenceMisses[pe]++;
+		}
+	}
+
+	/*
+	 * Returns the state of the line holding the address in the cache of the PE, one of INVALID..MODIFIED.
+	 */
+	byte getState(int pe, int address) {
+		return state[pe][(address & 0xFFFF) / lineSize];
+	}
+
+	public int getProcessors() {
+		return caches.length;
+	}
+
+	public long getReadHits(int pe) {
+		return readHits[pe];
+	}
+
+	public long getReadMisses(int pe) {
+		return readMisses[pe];
+	}
+
+	public long getWriteHits(int pe) {
+		return writeHits[pe];
+	}
+
+	public long getWriteMisses(int pe) {
+		return writeMisses[pe];
+	}
+
+	public long getCoherenceMisses(int pe) {
+		return coherenceMisses[pe];
+	}
+
+	public long getInvalidations() {
+		return invalidations;
+	}
+
+	public long getCacheToCacheTransfers() {
+		return cacheToCacheTransfers;
+	}
+
+	public long getWritebacks() {
+		return writebacks;
+	}
+
+	/**
+	 * Formats the counters of each cache and of the coherence traffic, one line per cache.
+	 */
+	public String report() {
+		StringBuilder sb = new StringBuilder();
+		for(int pe = 0; pe < caches.length; pe++) {
+			sb.append("cache[").append(pe).append("] read-hit=").append(readHits[pe])
+				.append(" read-miss=").append(readMisses[pe])
+				.append(" write-hit=").append(writeHits[pe])
+				.append(" write-miss=").append(writeMisses[pe])
+				.append(" coherence-miss=").append(coherenceMisses[pe])
+				.append(" upgrades=").append(upgrades[pe]).append('\n');
+		}
+		sb.append(protocol).append(" invalidations=").append(invalidations)
+			.append(" cache-to-cache=").append(cacheToCacheTransfers)
+			.append(" writebacks=").append(writebacks);
+		return sb.toString();
+	}
+
+}
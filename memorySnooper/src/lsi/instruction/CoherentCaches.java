@@ -0,0 +1,109 @@
+package lsi.instruction;
+
+import ptolemy.actor.TypedAtomicActor;
+import ptolemy.actor.TypedIOPort;
+import ptolemy.data.IntToken;
+import ptolemy.data.RecordToken;
+import ptolemy.data.expr.Parameter;
+import ptolemy.data.expr.StringParameter;
+import ptolemy.data.type.BaseType;
+import ptolemy.kernel.CompositeEntity;
+import ptolemy.kernel.util.IllegalActionException;
+import ptolemy.kernel.util.NameDuplicationException;
+
+/**
+ *  Represents the private caches of all the processing elements (PEs), kept coherent by snooping the bus.
+ *  
+ *  Unlike Cache, which keeps the transactions of a single master, this actor takes every transaction the bus commits on
+ *  its snoop port and applies it to the cache of the master that issued it. The MESI or MOESI protocol is simulated by
+ *  CoherenceSimulator.
+ */
+public class CoherentCaches extends TypedAtomicActor {
+
+	// Cache parameters that can be set in the Ptolemy simulation, shared by all the caches
+	Parameter processors;
+	Parameter size;
+	Parameter associativity; // 0 is fully associative
+	Parameter lineSize;
+	StringParameter replacementPolicy;
+	StringParameter protocol; // MESI or MOESI
+
+	CoherenceSimulator simulator;
+
+	// Input port that receives the transactions committed by the bus, with the master that issued them
+	TypedIOPort snoopInput;
+
+	public CoherentCaches(CompositeEntity container, String name) throws IllegalActionException, NameDuplicationException {
+		super(container, name);
+		snoopInput = new TypedIOPort(this, "snoop", true, false);
+		snoopInput.setTypeEquals(Instruction.getCommitTokenType());
+		setupParameters();
+	}
+
+	public void initialize() throws IllegalActionException {
+		super.initialize();
+		int pes = intValue(processors);
+		try {
+			PhysicalMemory[] caches = new PhysicalMemory[pes];
+			for(int pe = 0; pe < pes; pe++) {
+				caches[pe] = PhysicalMemory.create(intValue(size), intValue(associativity), intValue(lineSize), replacementPolicy.stringValue(), pe);
+			}
+			simulator = new CoherenceSimulator(caches, protocol.stringValue());
+		} catch(IllegalArgumentException e) {
+			throw new IllegalActionException(this, e.getMessage());
+		}
+	}
+
+	public void fire() throws IllegalActionException {
+		while(snoopInput.hasToken(0)) {
+			RecordToken t = (RecordToken)snoopInput.get(0);
+			int m = ((IntToken)t.get("master")).intValue();
+			if(m < 0 || m >= simulator.getProcessors()) {
+				throw new IllegalActionException(this, "Bus transaction from master " + m + ", only " + simulator.getProcessors() + " caches");
+			}
+			simulator.access(m, ((IntToken)t.get("type")).intValue(), ((IntToken)t.get("address")).intValue());
+		}
+	}
+
+	public CoherenceSimulator getSimulator() {
+		return simulator;
+	}
+
+	public void wrapup() throws IllegalActionException {
+		System.out.println(getName() + " (coherent)\n" + simulator.report());
+	}
+
+	private static int intValue(Parameter parameter) throws IllegalActionException {
+		return ((IntToken)parameter.getToken()).intValue();
+	}
+
+	private void setupParameters() throws IllegalActionException, NameDuplicationException {
+		processors = new Parameter(this, "processors");
+		size = new Parameter(this, "size");
+		associativity = new Parameter(this, "associativity");
+		lineSize = new Parameter(this, "lineSize");
+		replacementPolicy = new StringParameter(this, "replacementPolicy");
+		protocol = new StringParameter(this, "protocol");
+
+		processors.setTypeEquals(BaseType.INT);
+		size.setTypeEquals(BaseType.INT);
+		associativity.setTypeEquals(BaseType.INT);
+		lineSize.setTypeEquals(BaseType.INT);
+
+		processors.setExpression("4");
+		size.setExpression("128");
+		associativity.setExpression("0");
+		lineSize.setExpression("1");
+		replacementPolicy.setExpression(ReplacementPolicy.FIFO);
+		replacementPolicy.addChoice(ReplacementPolicy.FIFO);
+		replacementPolicy.addChoice(ReplacementPolicy.LRU);
+		replacementPolicy.addChoice(ReplacementPolicy.TREE_PLRU);
+		replacementPolicy.addChoice(ReplacementPolicy.RANDOM);
+		replacementPolicy.addChoice(ReplacementPolicy.LFU);
+		replacementPolicy.addChoice(ReplacementPolicy.ARC);
+		protocol.setExpression(CoherenceSimulator.MESI);
+		protocol.addChoice(CoherenceSimulator.MESI);
+		protocol.addChoice(CoherenceSimulator.MOESI);
+	}
+
+}
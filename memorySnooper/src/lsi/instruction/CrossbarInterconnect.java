@@ -0,0 +1,243 @@
+package lsi.instruction;
+
+import ptolemy.actor.TypedAtomicActor;
+import ptolemy.actor.TypedIOPort;
+import ptolemy.data.IntToken;
+import ptolemy.data.RecordToken;
+import ptolemy.data.expr.Parameter;
+import ptolemy.data.expr.StringParameter;
+import ptolemy.data.type.BaseType;
+import ptolemy.kernel.CompositeEntity;
+import ptolemy.kernel.util.IllegalActionException;
+import ptolemy.kernel.util.NameDuplicationException;
+
+/**
+ * A crossbar connecting masters to several memories, a drop-in alternative to SingleSharedMemoryBus.
+ *
+ * Masters are connected to the input and output multiports as on the bus and speak the same protocol: a request is
+ * echoed back as the grant once it has been forwarded to memory, and a READ is then answered with the DATA word.
+ * Each channel of the toMemory and fromMemory multiports leads to its own MemoryController, which all load the same
+ * memory image. Addresses are spread over the memories as over the banks of a MemoryController, by the interleaving
+ * parameter, so the number of memories must be a power of two.
+ *
+ * Every memory has its own path through the crossbar and its own arbiter, of the kind chosen by the arbitration
+ * parameter: in each cycle every memory can serve one transaction, the masters competing only for the same memory.
+ * As on the atomic bus a READ holds its memory until the data has been delivered.
+ *
+ * For each link between a master and a memory the crossbar counts the transactions, their latency (from the first
+ * cycle the request was seen to its completion) and prints them on wrapup with the throughput of the link.
+ */
+@SuppressWarnings("serial")
+public class CrossbarInterconnect extends TypedAtomicActor {
+
+	protected TypedIOPort input, output, clk, toMemory, fromMemory;
+
+	protected StringParameter arbitration; // FIXED_PRIORITY, ROUND_ROBIN, TDMA, WEIGHTED_FAIR or LOTTERY, one arbiter per memory
+	protected StringParameter interleaving; // LOW_ORDER or XOR
+	protected Parameter arbitrationSeed; // seed of the LOTTERY arbiters
+
+	protected int masters, memories;
+	protected MemoryBanks mapping; // only used to map addresses to memories
+	protected Arbiter[] arbiters;
+	protected int[][] requests; // requests[memory][master] is 1 if the master asks for the memory this cycle
+	protected RecordToken[] pending; // request of each master this cycle, if its memory is free
+	protected boolean[] granted; // masters whose grant is sent over the next clock cycle, still repeating their request
+
+	// State of the path to each memory, as activeMaster, toSend and toMaster on the bus
+	protected int[] activeMaster;
+	protected RecordToken[] toSend;
+	protected boolean[] toMaster;
+
+	protected long cycle;
+	protected long[] waitingSince; // cycle the pending request of each master was first seen, -1 if none
+	protected long[] started; // cycle the transaction on the path to each memory was first requested
+
+	// link statistics, indexed by master * memories + memory
+	protected long[] transactions, latency, maxLatency;
+
+	public CrossbarInterconnect(CompositeEntity container, String name) throws NameDuplicationException, IllegalActionException {
+		super(container, name);
+
+		clk = new TypedIOPort(this, "clk", true, false);
+		input = new TypedIOPort(this, "input", true, false);
+		output = new TypedIOPort(this, "output", false, true);
+		toMemory = new TypedIOPort(this, "toMemory", false, true);
+		fromMemory = new TypedIOPort(this, "fromMemory", true, false);
+		input.setMultiport(true);
+		output.setMultiport(true);
+		toMemory.setMultiport(true);
+		fromMemory.setMultiport(true);
+		input.setTypeEquals(Instruction.getTokenType());
+		output.setTypeEquals(Instruction.getTokenType());
+		toMemory.setTypeEquals(Instruction.getTokenType());
+		fromMemory.setTypeEquals(Instruction.getTokenType());
+
+		arbitration = new StringParameter(this, "arbitration");
+		arbitration.setExpression(Arbiter.ROUND_ROBIN);
+		arbitration.addChoice(Arbiter.FIXED_PRIORITY);
+		arbitration.addChoice(Arbiter.ROUND_ROBIN);
+		arbitration.addChoice(Arbiter.TDMA);
+		arbitration.addChoice(Arbiter.WEIGHTED_FAIR);
+		arbitration.addChoice(Arbiter.LOTTERY);
+		interleaving = new StringParameter(this, "interleaving");
+		interleaving.setExpression(MemoryBanks.LOW_ORDER);
+		interleaving.addChoice(MemoryBanks.LOW_ORDER);
+		interleaving.addChoice(MemoryBanks.XOR);
+		arbitrationSeed = new Parameter(this, "arbitrationSeed");
+		arbitrationSeed.setTypeEquals(BaseType.INT);
+		arbitrationSeed.setExpression("1");
+	}
+
+	public void initialize() throws IllegalActionException {
+		super.initialize();
+		masters = input.getWidth();
+		memories = toMemory.getWidth();
+		if(fromMemory.getWidth() != memories) {
+			throw new IllegalActionException(this, "toMemory and fromMemory must be connected to the same " + memories + " memories");
+		}
+		try {
+			mapping = new MemoryBanks(memories, interleaving.stringValue(), 1);
+			arbiters = new Arbiter[memories];
+			for(int m = 0; m < memories; m++) {
+				arbiters[m] = Arbiter.create(arbitration.stringValue(), masters, null, null, 1,
+						((IntToken)arbitrationSeed.getToken()).intValue() + m);
+			}
+		} catch(IllegalArgumentException e) {
+			throw new IllegalActionException(this, e.getMessage());
+		}
+		requests = new int[memories][masters];
+		pending = new RecordToken[masters];
+		granted = new boolean[masters];
+		activeMaster = new int[memories];
+		toSend = new RecordToken[memories];
+		toMaster = new boolean[memories];
+		started = new long[memories];
+		for(int m = 0; m < memories; m++) {
+			activeMaster[m] = -1;
+		}
+		cycle = 0;
+		waitingSince = new long[masters];
+		for(int i = 0; i < masters; i++) {
+			waitingSince[i] = -1;
+		}
+		transactions = new long[masters * memories];
+		latency = new long[masters * memories];
+		maxLatency = new long[masters * memories];
+	}
+
+	public void fire() throws IllegalActionException {
+		if(clk.hasToken(0)) {
+			clk.get(0);
+			cycle++;
+			for(int m = 0; m < memories; m++) {
+				if(toSend[m] == null) {
+					continue;
+				}
+				if(toMaster[m]) { // second phase of a READ
+					output.send(activeMaster[m], toSend[m]);
+					complete(m);
+				} else { // first phase, forward to memory and grant
+					toMemory.send(m, toSend[m]);
+					output.send(activeMaster[m], toSend[m]);
+					granted[activeMaster[m]] = false;
+					if(((IntToken)toSend[m].get("type")).intValue() == Instruction.WRITE) {
+						complete(m);
+					}
+				}
+				toSend[m] = null;
+			}
+		} else {
+			for(int m = 0; m < memories; m++) {
+				if(activeMaster[m] != -1 && fromMemory.hasToken(m)) {
+					toSend[m] = (RecordToken)fromMemory.get(m); // sent to the master over the next clock cycle
+					toMaster[m] = true;
+				}
+			}
+			arbitrate();
+		}
+		// discard the requests left, their masters keep driving them until granted
+		for(int i = 0; i < masters; i++) {
+			if(input.hasToken(i)) {
+				input.get(i);
+				if(waitingSince[i] == -1 && !granted[i]) {
+					waitingSince[i] = cycle;
+				}
+			}
+		}
+	}
+
+	/*
+	 * Every memory with no transaction in progress grants one of the masters asking for it.
+	 */
+	protected void arbitrate() throws IllegalActionException {
+		boolean any = false;
+		for(int i = 0; i < masters; i++) {
+			if(!input.hasToken(i) || granted[i]) {
+				continue;
+			}
+			RecordToken request = (RecordToken)input.get(i);
+			if(waitingSince[i] == -1) {
+				waitingSince[i] = cycle;
+			}
+			int m = mapping.bankOf(((IntToken)request.get("address")).intValue());
+			if(activeMaster[m] == -1) {
+				pending[i] = request;
+				requests[m][i] = 1;
+				any = true;
+			}
+		}
+		if(!any) {
+			return;
+		}
+		for(int m = 0; m < memories; m++) {
+			int winner = (activeMaster[m] == -1) ? arbiters[m].select(requests[m], cycle) : -1;
+			if(winner != -1) {
+				activeMaster[m] = winner;
+				toSend[m] = pending[winner];
+				toMaster[m] = false;
+				started[m] = waitingSince[winner];
+				waitingSince[winner] = -1;
+				granted[winner] = true;
+			}
+			for(int i = 0; i < masters; i++) {
+				requests[m][i] = 0;
+			}
+		}
+		for(int i = 0; i < masters; i++) {
+			pending[i] = null;
+		}
+	}
+
+	protected void complete(int memory) {
+		int link = activeMaster[memory] * memories + memory;
+		long time = cycle - started[memory];
+		transactions[link]++;
+		latency[link] += time;
+		if(time > maxLatency[link]) {
+			maxLatency[link] = time;
+		}
+		activeMaster[memory] = -1;
+	}
+
+	public void wrapup() throws IllegalActionException {
+		super.wrapup();
+		System.out.println(getName() + " crossbar of " + masters + " masters and " + memories + " memories over " + cycle + " cycles");
+		for(int i = 0; i < masters; i++) {
+			for(int m = 0; m < memories; m++) {
+				int link = i * memories + m;
+				if(transactions[link] > 0) {
+					System.out.println("link " + i + "->" + m + ": transactions=" + transactions[link]
+							+ " throughput=" + (cycle == 0 ? 0 : (double)transactions[link] / cycle)
+							+ " avg-latency=" + (double)latency[link] / transactions[link] + " max-latency=" + maxLatency[link]);
+				}
+			}
+		}
+	}
+
+	public void pruneDependencies() {
+		super.pruneDependencies();
+		removeDependency(input, output);
+		removeDependency(input, toMemory);
+	}
+
+}
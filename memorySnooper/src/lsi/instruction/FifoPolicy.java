@@ -0,0 +1,27 @@
+package lsi.instruction;
+
+/**
+ * First in first out: ways are overwritten round robin, accesses do not change the order.
+ */
+public class FifoPolicy extends ReplacementPolicy {
+
+	private int[] next;
+
+	public FifoPolicy(int sets, int ways) {
+		super(sets, ways);
+		next = new int[sets];
+	}
+
+	public void hit(int set, int way) {
+	}
+
+	public int victim(int set, int line) {
+		int way = next[set];
+		next[set] = (way + 1) % ways;
+		return way;
+	}
+
+	public void filled(int set, int way, int line) {
+	}
+
+}
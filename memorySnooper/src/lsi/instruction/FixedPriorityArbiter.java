@@ -0,0 +1,22 @@
+package lsi.instruction;
+
+/**
+ * Fixed priorities, master 0 has the highest priority and master n-1 the lowest. Low priority masters starve
+ * while higher ones keep the bus busy.
+ */
+public class FixedPriorityArbiter extends Arbiter {
+
+	public FixedPriorityArbiter(int masters) {
+		super(masters);
+	}
+
+	public int select(int[] requests, long cycle) {
+		for(int i = 0; i < requests.length; i++) {
+			if(requests[i] == 1) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+}
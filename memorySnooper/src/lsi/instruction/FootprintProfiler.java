@@ -0,0 +1,280 @@
+package lsi.instruction;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+
+/**
+ * Profiles the memory footprint of each PE, to size its cache: how many lines it touches in each region of the
+ * address space, how far apart its reuses are and how large its working set grows.
+ *
+ * Each PE has three streams: all its accesses, its instruction fetches and its data READs and WRITEs. For each stream
+ * the profiler keeps
+ * - the accesses and distinct lines in each address region, the regions starting at the given boundaries;
+ * - a histogram of reuse distances (the distinct lines used since the previous access to the same line, as computed by
+ *   StackDistanceAnalyzer) in power of two buckets, and the LRU cache sizes that catch 50%, 90% and 99% of the reuses;
+ * - the average working set size over a sliding window of T accesses of the stream, for T a power of two, from the
+ *   histogram of reuse times (the accesses since the previous access to the same line): a window of T + 1 accesses
+ *   holds one more line than a window of T for every access whose reuse time is above T (Denning and Schwartz). This
+ *   averages over every window of the stream, ignoring its edges.
+ * Recording an access never allocates, and the histograms stay the same size however long the simulation runs.
+ *
+ * Usage: java lsi.instruction.FootprintProfiler memoryFile [key=value...]
+ * runs the memory image with the PEs of myModel.xml in the HeadlessSimulator, which tells fetches from data accesses.
+ * Keys:
+ *   cycles=40001  lineSize=1  window=65536 (largest working set window)  regions=start,start,...  out=file
+ * The regions default to one starting at 0 and one at each initial PC, the program of each PE.
+ */
+public class FootprintProfiler {
+
+	public static final int ALL = 0;
+	public static final int INSTRUCTION = 1;
+	public static final int DATA = 2;
+	private static final String[] KIND_NAMES = {"all", "instruction", "data"};
+	private static final int KINDS = 3;
+
+	private static final double[] COVERAGE = {0.5, 0.9, 0.99};
+
+	private int processors, lineSize, maxWindow;
+	private int[] regionStart; // sorted first address of each region
+
+	// Per stream, indexed by pe * KINDS + kind
+	private StackDistanceAnalyzer[] distances;
+	private long[][] distanceBuckets; // bucket 0 holds distance 0, bucket b distances [2^(b-1), 2^b)
+	private int[][] lastAccess; // stream time of the last access of each line, 0 if never accessed
+	private long[][] reuseTimes; // accesses by reuse time 1..maxWindow, longer ones and first accesses are not counted
+	private long[][] regionAccesses;
+	private long[][] regionLines;
+	private long[] accesses;
+
+	/**
+	 * @param processors Number of PEs
+	 * @param lineSize Words per line
+	 * @param maxWindow Largest working set window, in accesses
+	 * @param regionStart First address of each region, the first region starting at 0
+	 * @throws IllegalArgumentException If a size is not positive or the regions are not increasing from 0
+	 */
+	public FootprintProfiler(int processors, int lineSize, int maxWindow, int[] regionStart) {
+		if(processors <= 0 || lineSize <= 0 || maxWindow <= 0) {
+			throw new IllegalArgumentException("Processors, line size and window must be positive, got " + processors + ", " + lineSize + " and " + maxWindow);
+		}
+		if(regionStart.length == 0 || regionStart[0] != 0) {
+			throw new IllegalArgumentException("The first region must start at 0");
+		}
+		for(int r = 1; r < regionStart.length; r++) {
+			if(regionStart[r] <= regionStart[r - 1] || regionStart[r] >= AddressProfiler.ADDRESS_SPACE) {
+				throw new IllegalArgumentException("Regions must start at increasing addresses below " + AddressProfiler.ADDRESS_SPACE + ", got " + Arrays.toString(regionStart));
+			}
+		}
+		this.processors = processors;
+		this.lineSize = lineSize;
+		this.maxWindow = maxWindow;
+		this.regionStart = regionStart.clone();
+
+		int streams = processors * KINDS;
+		int lines = (AddressProfiler.ADDRESS_SPACE + lineSize - 1) / lineSize;
+		int buckets = 33 - Integer.numberOfLeadingZeros(lines); // up to the bucket of distance lines - 1
+		distances = new StackDistanceAnalyzer[streams];
+		distanceBuckets = new long[streams][buckets];
+		lastAccess = new int[streams][lines];
+		reuseTimes = new long[streams][maxWindow + 1];
+		regionAccesses = new long[streams][regionStart.length];
+		regionLines = new long[streams][regionStart.length];
+		accesses = new long[streams];
+		for(int s = 0; s < streams; s++) {
+			distances[s] = new StackDistanceAnalyzer(lineSize);
+		}
+	}
+
+	/**
+	 * Records an access of the PE, an instruction fetch if fetch is true.
+	 */
+	public void access(int pe, int address, boolean fetch) {
+		int region = regionOf(address & (AddressProfiler.ADDRESS_SPACE - 1));
+		int line = ((address & Integer.MAX_VALUE) / lineSize) % lastAccess[0].length;
+		record(pe * KINDS + ALL, line, address, region);
+		record(pe * KINDS + (fetch ? INSTRUCTION : DATA), line, address, region);
+	}
+
+	private void record(int stream, int line, int address, int region) {
+		int time = (int)++accesses[stream];
+		regionAccesses[stream][region]++;
+		int previous = lastAccess[stream][line];
+		if(previous == 0) {
+			regionLines[stream][region]++;
+		} else if(time - previous <= maxWindow) {
+			reuseTimes[stream][time - previous]++;
+		}
+		lastAccess[stream][line] = time;
+		int distance = distances[stream].access(address);
+		if(distance >= 0) {
+			distanceBuckets[stream][32 - Integer.numberOfLeadingZeros(distance)]++;
+		}
+	}
+
+	private int regionOf(int address) {
+		int region = Arrays.binarySearch(regionStart, address);
+		return (region >= 0) ? region : -region - 2;
+	}
+
+	public long getAccesses(int pe, int kind) {
+		return accesses[pe * KINDS + kind];
+	}
+
+	/**
+	 * Returns the distinct lines the stream of the given kind of the PE accessed.
+	 */
+	public int getLines(int pe, int kind) {
+		return distances[pe * KINDS + kind].getLines();
+	}
+
+	/**
+	 * Returns the average number of distinct lines in a window of the given number of accesses of the stream.
+	 * @throws IllegalArgumentException If the window is not between 1 and the largest window
+	 */
+	public double getWorkingSet(int pe, int kind, int window) {
+		if(window <= 0 || window > maxWindow) {
+			throw new IllegalArgumentException("Window must be between 1 and " + maxWindow + ", got " + window);
+		}
+		int stream = pe * KINDS + kind;
+		long total = accesses[stream];
+		if(total == 0) {
+			return 0;
+		}
+		// A window of t + 1 accesses holds one line more than one of t for each access reused after more than t accesses
+		double size = 0;
+		long reusedWithin = 0;
+		for(int t = 0; t < window; t++) {
+			reusedWithin += reuseTimes[stream][t];
+			size += (double)(total - reusedWithin) / total;
+		}
+		return size;
+	}
+
+	/**
+	 * Returns the lines of the smallest LRU cache in which the given fraction of the reuses of the stream hit.
+	 */
+	public int getLinesFor(int pe, int kind, double fraction) {
+		StackDistanceAnalyzer analyzer = distances[pe * KINDS + kind];
+		long reuses = analyzer.getAccesses() - analyzer.getColdMisses();
+		long hits = 0;
+		for(int d = 0; d < analyzer.getLines(); d++) {
+			if(hits >= fraction * reuses) {
+				return d;
+			}
+			hits += analyzer.getHistogram(d);
+		}
+		return analyzer.getLines();
+	}
+
+	/**
+	 * Formats the profile of every stream that made an access, a few lines each.
+	 */
+	public String report() {
+		StringBuilder report = new StringBuilder();
+		for(int pe = 0; pe < processors; pe++) {
+			for(int kind = 0; kind < KINDS; kind++) {
+				int stream = pe * KINDS + kind;
+				if(accesses[stream] == 0) {
+					continue;
+				}
+				StackDistanceAnalyzer analyzer = distances[stream];
+				report.append("pe").append(pe).append(' ').append(KIND_NAMES[kind])
+					.append(": accesses=").append(accesses[stream])
+					.append(" lines=").append(analyzer.getLines())
+					.append(" words=").append(analyzer.getLines() * lineSize).append('\n');
+				report.append("  regions:");
+				for(int r = 0; r < regionStart.length; r++) {
+					if(regionAccesses[stream][r] > 0) {
+						int end = (r + 1 < regionStart.length) ? regionStart[r + 1] : AddressProfiler.ADDRESS_SPACE;
+						report.append(" [").append(regionStart[r]).append(',').append(end).append(")=")
+							.append(regionAccesses[stream][r]).append('/').append(regionLines[stream][r]);
+					}
+				}
+				report.append(" (accesses/lines)\n");
+				report.append("  reuse-distance:");
+				for(int b = 0; b < distanceBuckets[stream].length; b++) {
+					if(distanceBuckets[stream][b] > 0) {
+						int low = (b == 0) ? 0 : 1 << (b - 1);
+						int high = (b == 0) ? 0 : (1 << b) - 1;
+						report.append(' ').append(low);
+						if(high > low) {
+							report.append('-').append(high);
+						}
+						report.append('=').append(distanceBuckets[stream][b]);
+					}
+				}
+				report.append(" cold=").append(analyzer.getColdMisses()).append('\n');
+				report.append("  lru-lines-for-hits:");
+				for(double fraction : COVERAGE) {
+					report.append(' ').append(Math.round(fraction * 100)).append("%=").append(getLinesFor(pe, kind, fraction));
+				}
+				report.append('\n');
+				report.append("  working-set:");
+				for(long window = 1; window <= Math.min(maxWindow, accesses[stream]); window *= 2) {
+					report.append(' ').append(window).append('=').append(String.format("%.1f", getWorkingSet(pe, kind, (int)window)));
+				}
+				report.append('\n');
+			}
+		}
+		return report.toString();
+	}
+
+	public static void main(String[] args) throws IOException {
+		if(args.length < 1) {
+			System.err.println("Usage: java lsi.instruction.FootprintProfiler memoryFile [cycles=40001] [lineSize=1] [window=65536] [regions=start,start,...] [out=file]");
+			System.exit(1);
+		}
+		long cycles = 40001;
+		int lineSize = 1;
+		int window = AddressProfiler.ADDRESS_SPACE;
+		int[] regions = null;
+		String out = null;
+		for(int i = 1; i < args.length; i++) {
+			int split = args[i].indexOf('=');
+			if(split < 0) {
+				throw new IllegalArgumentException("Expected key=value, got " + args[i]);
+			}
+			String key = args[i].substring(0, split);
+			String value = args[i].substring(split + 1);
+			if(key.equals("cycles")) {
+				cycles = Long.parseLong(value);
+			} else if(key.equals("lineSize")) {
+				lineSize = Integer.parseInt(value);
+			} else if(key.equals("window")) {
+				window = Integer.parseInt(value);
+			} else if(key.equals("regions")) {
+				String[] parts = value.split(",");
+				regions = new int[parts.length];
+				for(int r = 0; r < parts.length; r++) {
+					regions[r] = Integer.parseInt(parts[r].trim());
+				}
+			} else if(key.equals("out")) {
+				out = value;
+			} else {
+				throw new IllegalArgumentException("Unknown option " + key);
+			}
+		}
+		int[] initialPCs = HeadlessSimulator.MODEL_INITIAL_PCS;
+		if(regions == null) {
+			int[] pcs = initialPCs.clone();
+			Arrays.sort(pcs);
+			regions = new int[pcs.length + 1];
+			System.arraycopy(pcs, 0, regions, 1, pcs.length);
+		}
+
+		FootprintProfiler profiler = new FootprintProfiler(initialPCs.length, lineSize, window, regions);
+		HeadlessSimulator simulator = new HeadlessSimulator(MemoryImage.open(args[0]), initialPCs, null);
+		simulator.setProfiler(profiler);
+		long start = System.nanoTime();
+		simulator.run(cycles);
+		double seconds = (System.nanoTime() - start) / 1e9;
+
+		PrintWriter writer = new PrintWriter((out != null) ? new FileWriter(out) : new PrintWriter(System.out));
+		writer.print(profiler.report());
+		writer.close();
+		System.err.println(cycles + " cycles profiled in " + seconds + " s");
+	}
+
+}
@@ -0,0 +1,540 @@
+package lsi.instruction;
+
+import java.io.IOException;
+
+/**
+ * Runs the multiprocessor of myModel.xml without Ptolemy: N InstructionProcessor state machines, the
+ * SingleSharedMemoryBus with its arbiter (fixed priority unless set), the MemoryController and one CacheSimulator per PE,
+ * all stepped one clock cycle at a time in plain loops over primitive arrays.
+ *
+ * Each cycle replays the order in which the DE director fires the actors on a clock tick:
+ * 1. memory controller: sends the word requested in the previous cycle
+ * 2. bus, clock: delivers the pending grant or data, then latches the data coming from memory
+ * 3. memory controller: latches the request the bus has just forwarded, performs writes
+ * 4. PEs: consume what the bus delivered and issue (or re-issue) their requests
+ * 5. bus: arbitrates between the requests, the winner is served from the next cycle
+ * In split transaction mode the bus behaves as SingleSharedMemoryBus with splitTransactions set: it is released once a
+ * request has been forwarded and the READs wait for their data, tagged with their PE, in an outstanding queue.
+ * Cycles in which every PE is counting down a long EXECUTE while the bus and memory are idle change nothing but the
+ * timers, so they are skipped in one jump rather than stepped one by one; every statistic stays cycle-identical.
+ * Each PE cache sees the transactions of its PE as the bus commits them, as Cache does when connected to the snoop port
+ * of the bus, so the cache statistics are meant to equal the ones of the Ptolemy model. That has not been checked
+ * against a Ptolemy run, which prints them at wrapup; ScalingBenchmark compares the instructions and bus transactions
+ * of the two engines.
+ *
+ * Usage: java lsi.instruction.HeadlessSimulator memoryFile [cycles] [cacheSize] [writeHitPolicy] [writeMissPolicy] [usingWritePolicies] [initialPC...]
+ * The defaults are the ones of myModel.xml: 40001 cycles, caches of 1024 words, write-back, write-around, write
+ * policies used and its four initial PCs.
+ */
+public class HeadlessSimulator {
+
+	// Initial PCs of the PEs in myModel.xml, in the order they are connected to the bus
+	public static final int[] MODEL_INITIAL_PCS = {19384, 50152, 34768, 4000};
+
+	// Words in each Cache of myModel.xml (its mySize parameter)
+	public static final int MODEL_CACHE_SIZE = 1024;
+
+	private static final int NONE = -1;
+
+	private MemoryImage memory;
+	private CacheSimulator[] caches;
+	private AddressTrace trace; // records the transactions the caches see, null when not recording
+	private FootprintProfiler profiler; // profiles the transactions the caches see, null when not profiling
+	private CoherenceSimulator coherence; // coherent caches of all the PEs, as CoherentCaches, null when not simulated
+	private int processors;
+	private long cycle = 0;
+
+	// PE state, see InstructionProcessor
+	private int[] state, pc, timer, raddress, rdata;
+
+	// What the bus delivered to each PE this cycle
+	private boolean[] hasInput;
+	private int[] inType, inData, inAddress, inTime;
+
+	// Request each PE drives the bus with this cycle
+	private boolean[] requesting;
+	private int[] requestType, requestData, requestAddress;
+
+	// Bus state, see SingleSharedMemoryBus
+	private Arbiter arbiter;
+	private int[] arbitrationRequests;
+	private int activeMaster = NONE;
+	private boolean toSendValid = false;
+	private boolean toMaster = false;
+	private int sendType, sendData, sendAddress, sendTime;
+	private boolean split = false;
+	private int[] outstanding; // PEs waiting for a READ response in split mode, oldest at outstandingHead
+	private int outstandingHead = 0, outstandingCount = 0;
+	private boolean responseValid = false; // memory word to deliver in split mode
+	private int responseType, responseData, responseAddress, responseTime;
+
+	// Memory controller state, one bank answering on the next cycle unless set
+	private MemoryBanks banks = new MemoryBanks(1, MemoryBanks.LOW_ORDER, 1);
+	private int wordType, wordData, wordAddress, wordTime; // word memory sends this cycle
+
+	// Statistics
+	private long[] instructions; // instructions decoded
+	private long[] grants;       // bus transactions won
+	private long[] stalls;       // cycles spent driving a request that was not granted in that cycle
+	private long[] waitingSince; // cycle the pending request was first driven, -1 if none
+	private long[] maxWait;      // longest wait for a grant
+	private long busyCycles = 0; // cycles the bus had an active master or a transfer pending
+	private long skippedCycles = 0; // idle cycles jumped over instead of stepped
+	private boolean skipIdleCycles = true;
+	private long transferCycles = 0; // cycles the bus carried a grant or data
+	private long completed = 0;  // transactions finished, at data delivery for READs
+
+	/**
+	 * @param memory The memory image, modified by the writes of the PEs
+	 * @param initialPCs One initial PC per PE, PE i is connected to bus channel i
+	 * @param caches One cache per PE, or null to run without caches
+	 */
+	public HeadlessSimulator(MemoryImage memory, int[] initialPCs, CacheSimulator[] caches) {
+		this.memory = memory;
+		this.caches = caches;
+		processors = initialPCs.length;
+		state = new int[processors];
+		pc = initialPCs.clone();
+		timer = new int[processors];
+		raddress = new int[processors];
+		rdata = new int[processors];
+		hasInput = new boolean[processors];
+		inType = new int[processors];
+		inData = new int[processors];
+		inAddress = new int[processors];
+		inTime = new int[processors];
+		requesting = new boolean[processors];
+		requestType = new int[processors];
+		requestData = new int[processors];
+		requestAddress = new int[processors];
+		instructions = new long[processors];
+		grants = new long[processors];
+		stalls = new long[processors];
+		waitingSince = new long[processors];
+		maxWait = new long[processors];
+		arbitrationRequests = new int[processors];
+		arbiter = new FixedPriorityArbiter(processors);
+		for(int i = 0; i < processors; i++) {
+			state[i] = InstructionProcessor.FETCH;
+			waitingSince[i] = NONE;
+		}
+	}
+
+	/**
+	 * Simulates the given number of clock cycles.
+	 */
+	public void run(long cycles) {
+		for(long end = cycle + cycles; cycle < end; cycle++) {
+			if(skipIdleCycles) {
+				long idle = Math.min(idleCycles(), end - cycle);
+				if(idle > 0) {
+					for(int i = 0; i < processors; i++) {
+						timer[i] -= idle;
+					}
+					cycle += idle;
+					skippedCycles += idle;
+					if(cycle == end) {
+						break;
+					}
+				}
+			}
+			step();
+		}
+	}
+
+	/*
+	 * Returns how many of the next cycles would only decrement the EXECUTE timers: every PE is executing with at
+	 * least two cycles to go, so none of them reaches FETCH, and nothing is on its way through the bus or memory.
+	 */
+	private long idleCycles() {
+		if(activeMaster != NONE || toSendValid || responseValid || outstandingCount > 0 || banks.hasPending()) {
+			return 0;
+		}
+		long idle = Long.MAX_VALUE;
+		for(int i = 0; i < processors; i++) {
+			if(state[i] != InstructionProcessor.EXECUTE || hasInput[i] || timer[i] < 2) {
+				return 0;
+			}
+			idle = Math.min(idle, timer[i] - 1); // the cycle that takes the timer to 0 must be stepped
+		}
+		return idle;
+	}
+
+	private void step() {
+		// 1. Memory controller clock: send back the oldest read once its bank has served it
+		boolean fromMemoryValid = false;
+		if(banks.hasResponse(cycle)) {
+			fromMemoryValid = true;
+			wordType = banks.responseType();
+			wordData = banks.responseData();
+			wordAddress = banks.responseAddress();
+			wordTime = banks.responseTime();
+			banks.pop();
+		}
+
+		// 2. Bus clock: deliver what was queued in the previous cycle
+		boolean toMemoryValid = false;
+		if(split) {
+			toMemoryValid = clockSplitBus(fromMemoryValid);
+		} else if(toSendValid) {
+			transferCycles++;
+			deliver(activeMaster, sendType, sendData, sendAddress, sendTime);
+			if(toMaster) {
+				activeMaster = NONE; // second phase of a read, transaction finished
+				completed++;
+			} else {
+				toMemoryValid = true; // the request goes to memory, the echo is the grant
+				grants[activeMaster]++;
+				commit(activeMaster);
+				if(sendType == Instruction.WRITE) {
+					activeMaster = NONE;
+					completed++;
+				}
+			}
+			toSendValid = false;
+		}
+		if(!split && activeMaster != NONE && fromMemoryValid) {
+			queue(wordType, wordData, wordAddress, wordTime);
+			toMaster = true;
+		}
+
+		// 3. Memory controller: handle the request forwarded by the bus
+		if(toMemoryValid) {
+			if(sendType == Instruction.READ) {
+				banks.read(memory, sendAddress, cycle);
+			} else if(sendType == Instruction.WRITE) {
+				memory.write(sendAddress, sendData);
+				banks.write(sendAddress, cycle);
+			}
+		}
+
+		// 4. PEs
+		for(int i = 0; i < processors; i++) {
+			firePE(i);
+		}
+
+		// 5. Bus arbitration
+		if(activeMaster != NONE || toSendValid || responseValid) {
+			busyCycles++;
+		}
+		int granted = NONE; // master granted in this cycle
+		if(activeMaster == NONE && !(split && outstandingCount == outstanding.length)) {
+			boolean any = false;
+			for(int i = 0; i < processors; i++) {
+				arbitrationRequests[i] = requesting[i] ? 1 : 0;
+				any |= requesting[i];
+			}
+			int winner = any ? arbiter.select(arbitrationRequests, cycle + 1) : NONE; // the bus counts clock ticks from 1
+			if(winner != NONE) {
+				activeMaster = winner;
+				granted = winner;
+				queue(requestType[winner], requestData[winner], requestAddress[winner], -1);
+				toMaster = false;
+				long wait = (waitingSince[winner] == NONE) ? 0 : cycle - waitingSince[winner];
+				maxWait[winner] = Math.max(maxWait[winner], wait);
+				waitingSince[winner] = NONE;
+			}
+		}
+		for(int i = 0; i < processors; i++) {
+			if(requesting[i] && i != granted) {
+				stalls[i]++; // as InstructionProcessor counts them, a granted request still driven in split mode included
+			}
+			if(requesting[i] && !(i == activeMaster && toSendValid && !toMaster) && waitingSince[i] == NONE) {
+				waitingSince[i] = cycle;
+			}
+			requesting[i] = false;
+		}
+	}
+
+	/*
+	 * Bus clock in split transaction mode, returns true if a request was forwarded to memory.
+	 * A pending response is delivered first, a granted request then waits for the next cycle.
+	 */
+	private boolean clockSplitBus(boolean fromMemoryValid) {
+		boolean toMemoryValid = false;
+		if(responseValid) {
+			int pe = outstanding[outstandingHead];
+			outstandingHead = (outstandingHead + 1) % outstanding.length;
+			outstandingCount--;
+			deliver(pe, responseType, responseData, responseAddress, responseTime);
+			responseValid = false;
+			transferCycles++;
+			completed++;
+		} else if(toSendValid) {
+			deliver(activeMaster, sendType, sendData, sendAddress, sendTime);
+			toMemoryValid = true;
+			grants[activeMaster]++;
+			commit(activeMaster);
+			if(sendType == Instruction.WRITE) {
+				completed++;
+			} else {
+				outstanding[(outstandingHead + outstandingCount) % outstanding.length] = activeMaster;
+				outstandingCount++;
+			}
+			activeMaster = NONE;
+			toSendValid = false;
+			transferCycles++;
+		}
+		if(fromMemoryValid) {
+			responseValid = true;
+			responseType = wordType;
+			responseData = wordData;
+			responseAddress = wordAddress;
+			responseTime = wordTime;
+		}
+		return toMemoryValid;
+	}
+
+	private void firePE(int i) {
+		if(timer[i] != 0) {
+			timer[i]--;
+		}
+		if(hasInput[i]) {
+			hasInput[i] = false;
+			switch(state[i]) {
+			case InstructionProcessor.FETCH:
+				pc[i]++;
+				state[i] = InstructionProcessor.DECODE;
+				break;
+			case InstructionProcessor.WRITE:
+				state[i] = InstructionProcessor.FETCH;
+				break;
+			case InstructionProcessor.READ:
+				state[i] = InstructionProcessor.DATA_WAIT;
+				break;
+			case InstructionProcessor.DATA_WAIT:
+				state[i] = InstructionProcessor.FETCH;
+				break;
+			case InstructionProcessor.DECODE:
+				instructions[i]++;
+				if(inType[i] == Instruction.EXECUTE) {
+					timer[i] = inTime[i];
+					state[i] = InstructionProcessor.EXECUTE;
+				} else if(inType[i] == Instruction.JUMP) {
+					pc[i] = inAddress[i];
+					state[i] = InstructionProcessor.FETCH;
+				} else if(inType[i] == Instruction.WRITE) {
+					raddress[i] = inAddress[i];
+					rdata[i] = inData[i];
+					state[i] = InstructionProcessor.WRITE;
+				} else if(inType[i] == Instruction.READ) {
+					raddress[i] = inAddress[i];
+					state[i] = InstructionProcessor.READ;
+				}
+				break;
+			default:
+				break;
+			}
+		} else {
+			switch(state[i]) {
+			case InstructionProcessor.EXECUTE:
+				if(timer[i] == 0) {
+					state[i] = InstructionProcessor.FETCH;
+				}
+				break;
+			case InstructionProcessor.WRITE:
+				request(i, Instruction.WRITE, rdata[i], raddress[i]);
+				break;
+			case InstructionProcessor.READ:
+				request(i, Instruction.READ, -1, raddress[i]);
+				break;
+			case InstructionProcessor.FETCH:
+				request(i, Instruction.READ, -1, pc[i]);
+				break;
+			default:
+				break;
+			}
+		}
+	}
+
+	private void request(int i, int type, int data, int address) {
+		requesting[i] = true;
+		requestType[i] = type;
+		requestData[i] = data;
+		requestAddress[i] = address;
+	}
+
+	/*
+	 * The request being forwarded to memory is committed: the cache of the PE that issued it sees it.
+	 */
+	private void commit(int i) {
+		if(caches != null) {
+			caches[i].access(sendType, sendAddress);
+		}
+		if(trace != null) {
+			trace.add(i, sendType, sendAddress);
+		}
+		if(profiler != null) {
+			profiler.access(i, sendAddress, state[i] == InstructionProcessor.FETCH); // the PE has not seen its grant yet
+		}
+		if(coherence != null) {
+			coherence.access(i, sendType, sendAddress);
+		}
+	}
+
+	private void deliver(int i, int type, int data, int address, int time) {
+		hasInput[i] = true;
+		inType[i] = type;
+		inData[i] = data;
+		inAddress[i] = address;
+		inTime[i] = time;
+	}
+
+	private void queue(int type, int data, int address, int time) {
+		toSendValid = true;
+		sendType = type;
+		sendData = data;
+		sendAddress = address;
+		sendTime = time;
+	}
+
+	/**
+	 * Records every transaction the bus commits from now on into the given trace, null stops recording.
+	 */
+	public void setTrace(AddressTrace trace) {
+		this.trace = trace;
+	}
+
+	/**
+	 * Profiles every transaction the bus commits from now on with the given profiler, null stops profiling.
+	 */
+	public void setProfiler(FootprintProfiler profiler) {
+		this.profiler = profiler;
+	}
+
+	/**
+	 * Feeds every transaction the bus commits from now on to the given coherent caches, null stops feeding them.
+	 */
+	public void setCoherence(CoherenceSimulator coherence) {
+		this.coherence = coherence;
+	}
+
+	public long getCycles() {
+		return cycle;
+	}
+
+	public long getInstructions(int pe) {
+		return instructions[pe];
+	}
+
+	public long getGrants(int pe) {
+		return grants[pe];
+	}
+
+	public long getStalls(int pe) {
+		return stalls[pe];
+	}
+
+	public long getMaxWait(int pe) {
+		return maxWait[pe];
+	}
+
+	/**
+	 * Replaces the fixed priority arbitration of the bus, e.g. with one built by Arbiter.create.
+	 */
+	public void setArbiter(Arbiter arbiter) {
+		this.arbiter = arbiter;
+	}
+
+	/**
+	 * Switches the bus to split transactions with up to maxOutstanding READs waiting for memory, before running.
+	 */
+	public void setSplitTransactions(int maxOutstanding) {
+		split = true;
+		outstanding = new int[maxOutstanding];
+	}
+
+	/**
+	 * Replaces the single bank memory, before running.
+	 */
+	public void setBanks(MemoryBanks banks) {
+		this.banks = banks;
+	}
+
+	public MemoryBanks getBanks() {
+		return banks;
+	}
+
+	public long getTransferCycles() {
+		return transferCycles;
+	}
+
+	public long getCompleted() {
+		return completed;
+	}
+
+	/**
+	 * Enables or disables jumping over idle cycles, enabled by default. Results are the same either way.
+	 */
+	public void setSkipIdleCycles(boolean skipIdleCycles) {
+		this.skipIdleCycles = skipIdleCycles;
+	}
+
+	public long getSkippedCycles() {
+		return skippedCycles;
+	}
+
+	public long getBusyCycles() {
+		return busyCycles;
+	}
+
+	public CacheSimulator getCache(int pe) {
+		return caches == null ? null : caches[pe];
+	}
+
+	/**
+	 * Formats the statistics of every PE and of the bus.
+	 */
+	public String report() {
+		StringBuilder sb = new StringBuilder();
+		for(int i = 0; i < processors; i++) {
+			sb.append("PE").append(i).append(" instructions=").append(instructions[i])
+				.append(" grants=").append(grants[i])
+				.append(" stall-cycles=").append(stalls[i])
+				.append(" max-wait=").append(maxWait[i])
+				.append(" cpi=").append(instructions[i] == 0 ? 0 : (double)cycle / instructions[i]);
+			if(caches != null) {
+				sb.append(' ').append(caches[i]);
+			}
+			sb.append('\n');
+		}
+		sb.append("bus cycles=").append(cycle).append(" busy=").append(busyCycles)
+			.append(" transfers=").append(transferCycles).append(" completed=").append(completed)
+			.append(" skipped=").append(skippedCycles);
+		return sb.toString();
+	}
+
+	public static void main(String[] args) throws IOException {
+		if(args.length < 1) {
+			System.err.println("Usage: java lsi.instruction.HeadlessSimulator memoryFile [cycles] [cacheSize] [writeHitPolicy] [writeMissPolicy] [usingWritePolicies] [initialPC...]");
+			System.err.println("Defaults as in myModel.xml: 40001 cycles, cacheSize " + MODEL_CACHE_SIZE + ", write-back, write-around, write policies used");
+			System.exit(1);
+		}
+		long cycles = args.length > 1 ? Long.parseLong(args[1]) : 40001; // stopTime / period of myModel.xml, ticks at 0 included
+		int size = args.length > 2 ? Integer.parseInt(args[2]) : MODEL_CACHE_SIZE;
+		int writeHit = args.length > 3 ? Integer.parseInt(args[3]) : WritePolicy.WRITE_BACK;
+		int writeMiss = args.length > 4 ? Integer.parseInt(args[4]) : WritePolicy.WRITE_AROUND;
+		boolean usingWritePolicies = args.length > 5 ? Boolean.parseBoolean(args[5]) : true;
+		int[] initialPCs = MODEL_INITIAL_PCS;
+		if(args.length > 6) {
+			initialPCs = new int[args.length - 6];
+			for(int i = 0; i < initialPCs.length; i++) {
+				initialPCs[i] = Integer.parseInt(args[6 + i]);
+			}
+		}
+
+		CacheSimulator[] caches = new CacheSimulator[initialPCs.length];
+		for(int i = 0; i < caches.length; i++) {
+			caches[i] = new CacheSimulator(new PhysicalMemory(size), new WritePolicy(usingWritePolicies, writeHit, writeMiss));
+		}
+		HeadlessSimulator simulator = new HeadlessSimulator(MemoryImage.open(args[0]), initialPCs, caches);
+
+		long start = System.nanoTime();
+		simulator.run(cycles);
+		double seconds = (System.nanoTime() - start) / 1e9;
+
+		System.out.println(simulator.report());
+		System.out.println("simulated " + cycles + " cycles in " + seconds + " s, " + (long)(cycles / seconds) + " cycles/s");
+	}
+
+}
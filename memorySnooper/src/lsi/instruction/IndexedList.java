@@ -0,0 +1,108 @@
+package lsi.instruction;
+
+/**
+ * A group of doubly linked lists whose nodes are the integers 0..nodes-1.
+ *
+ * Links are kept in int arrays, so moving a node between or within lists takes constant time and does not allocate.
+ * A node belongs to at most one list at a time. The first node of a list is the most recently added one.
+ */
+public class IndexedList {
+
+	private static final int NONE = -1;
+
+	private int[] prev;
+	private int[] next;
+	private int[] listOf;
+	private int[] head;
+	private int[] tail;
+	private int[] size;
+
+	public IndexedList(int nodes, int lists) {
+		prev = new int[nodes];
+		next = new int[nodes];
+		listOf = new int[nodes];
+		head = new int[lists];
+		tail = new int[lists];
+		size = new int[lists];
+		for(int i = 0; i < nodes; i++) {
+			listOf[i] = NONE;
+		}
+		for(int i = 0; i < lists; i++) {
+			head[i] = NONE;
+			tail[i] = NONE;
+		}
+	}
+
+	public void addFirst(int list, int node) {
+		remove(node);
+		prev[node] = NONE;
+		next[node] = head[list];
+		if(head[list] != NONE) {
+			prev[head[list]] = node;
+		} else {
+			tail[list] = node;
+		}
+		head[list] = node;
+		listOf[node] = list;
+		size[list]++;
+	}
+
+	public void addLast(int list, int node) {
+		remove(node);
+		next[node] = NONE;
+		prev[node] = tail[list];
+		if(tail[list] != NONE) {
+			next[tail[list]] = node;
+		} else {
+			head[list] = node;
+		}
+		tail[list] = node;
+		listOf[node] = list;
+		size[list]++;
+	}
+
+	/**
+	 * Unlinks the node from its list, does nothing if it is in no list.
+	 */
+	public void remove(int node) {
+		int list = listOf[node];
+		if(list == NONE) {
+			return;
+		}
+		if(prev[node] != NONE) {
+			next[prev[node]] = next[node];
+		} else {
+			head[list] = next[node];
+		}
+		if(next[node] != NONE) {
+			prev[next[node]] = prev[node];
+		} else {
+			tail[list] = prev[node];
+		}
+		listOf[node] = NONE;
+		size[list]--;
+	}
+
+	/**
+	 * Returns the least recently added node of the list, or -1 if it is empty.
+	 */
+	public int last(int list) {
+		return tail[list];
+	}
+
+	public int first(int list) {
+		return head[list];
+	}
+
+	public int size(int list) {
+		return size[list];
+	}
+
+	/**
+	 * Returns the list holding the node, or -1.
+	 */
+	public int listOf(int node) {
+		return listOf[node];
+	}
+
+}
@@ -23,6 +23,9 @@ import ptolemy.kernel.util.IllegalActionException;
  * 
  * Instances are able to generate standard format RecordToken instances representing themselves.
  * 
+ * A committed transaction, as published by the bus on its snoop port, is the same record with an extra master field
+ * holding the index of the master that issued it.
+ * 
  */
 
 
@@ -37,6 +40,11 @@ public class Instruction {
 	
 	
 	
+	private static final RecordType TOKEN_TYPE = buildTokenType();
+	private static final TokenCache TOKENS = new TokenCache(4096);
+	private static final String[] COMMIT_LABELS = {"master", "type", "data", "address", "time"};
+	private static final RecordType COMMIT_TOKEN_TYPE = buildCommitTokenType();
+	
 	public final int data;
 	public final int type;
 	public final int address;
@@ -53,25 +61,56 @@ public class Instruction {
 	
 	public RecordToken getToken() throws IllegalActionException{
 
-		String[] labels_ = new String[4];
-        labels_[0] = "type";
-        labels_[1] = "data";
-        labels_[2] = "address";
-        labels_[3] = "time";
+		return getToken(this.type, this.data, this.address, this.time);
+	}
 
-        Token[] values_ = new Token[4];
-		values_[0] = new IntToken(this.type);
-	    values_[1] = new IntToken(this.data);
-	    values_[2] = new IntToken(this.address); 
-	    values_[3] = new IntToken(this.time); 
-	    
-	    return new RecordToken(labels_, values_);
+
+	/**
+	 * Returns the token of a word stored field by field, as in MemoryImage.
+	 * Tokens are immutable and come from a bounded cache, so a word sent again, as a PE does while it waits for
+	 * the bus, reuses the same token.
+	 */
+	public static RecordToken getToken(int type, int data, int address, int time) throws IllegalActionException{
+
+	    return TOKENS.get(type, data, address, time);
 	}
 
 	
 	
 	public static RecordType getTokenType(){
 		
+		return TOKEN_TYPE;
+	}
+	
+	
+	/**
+	 * Returns the token of a committed transaction: the word a master drove the bus with, tagged with the master.
+	 */
+	public static RecordToken getCommitToken(IntToken master, RecordToken word) throws IllegalActionException{
+
+		Token[] values = {master, word.get("type"), word.get("data"), word.get("address"), word.get("time")};
+		return new RecordToken(COMMIT_LABELS, values);
+	}
+
+
+	public static RecordType getCommitTokenType(){
+
+		return COMMIT_TOKEN_TYPE;
+	}
+
+
+	private static RecordType buildCommitTokenType(){
+
+		Type[] types = new Type[COMMIT_LABELS.length];
+		for(int i=0;i<types.length;i++){
+			types[i] = BaseType.INT;
+		}
+		return new RecordType(COMMIT_LABELS, types);
+	}
+	
+	
+	private static RecordType buildTokenType(){
+		
 		String[] labels_ = new String[4];
         labels_[0] = "type";
         labels_[1] = "data";
@@ -91,13 +130,20 @@ public class Instruction {
 	
 	public String toString(){
 		
+		return toString(this.type, this.data, this.address, this.time);
+		
+	}
+	
+	
+	public static String toString(int type, int data, int address, int time){
+		
 		String si = "";
 		
-		if(this.type==0) si="X "+this.time;
-		else if(this.type==1) si="R "+this.address;
-		else if(this.type==2) si="W "+this.address+ " "+this.data;
-		else if(this.type==3) si="J "+this.address;
-		else si="D "+this.data;
+		if(type==0) si="X "+time;
+		else if(type==1) si="R "+address;
+		else if(type==2) si="W "+address+ " "+data;
+		else if(type==3) si="J "+address;
+		else si="D "+data;
 		
 		return si;
 		
@@ -19,10 +19,17 @@ package lsi.instruction;
  * 
  * Actor has a debug port which shows which state of the state machine it is in.
  * 
+ * Actor keeps PerformanceCounters of the cycles spent in each state, the cycles spent driving the bus again because
+ * the request has not been granted yet (the first cycle of each request is not a stall, as in HeadlessSimulator)
+ * and the instructions decoded, with the resulting CPI. They are readable live over JMX and appended as
+ * CSV to the counters file on wrapup if one is set.
+ * 
  * 
  */
 
 
+import java.io.IOException;
+
 import ptolemy.actor.NoRoomException;
 import ptolemy.actor.TypedAtomicActor;
 import ptolemy.actor.TypedIOPort;
@@ -49,6 +56,7 @@ public class InstructionProcessor extends TypedAtomicActor{
 	protected int timer=0;
 	protected int raddress;
 	protected int rdata;
+	protected boolean requested; // a request was sent on the last clock tick
 
 
 	protected static final int EXECUTE = 0;
@@ -59,6 +67,14 @@ public class InstructionProcessor extends TypedAtomicActor{
 	protected static final int DATA_WAIT = 5;
 
 
+	// counters, the cycles spent in state s are at STATE_CYCLES + s
+	protected static final int CYCLES = 0, STATE_CYCLES = 1, GRANT_WAIT_CYCLES = 7, INSTRUCTIONS = 8;
+	protected static final String[] COUNTER_NAMES = {"cycles", "execute-cycles", "read-cycles", "write-cycles", "fetch-cycles",
+		"decode-cycles", "data-wait-cycles", "grant-wait-cycles", "instructions"};
+	protected PerformanceCounters counters;
+	protected StringParameter countersFile;
+
+
 
 
 
@@ -83,6 +99,9 @@ public class InstructionProcessor extends TypedAtomicActor{
 
 
 		initPC.setTypeEquals(BaseType.INT);
+
+		countersFile = new StringParameter(this, "counters file");
+		countersFile.setExpression("");
 	}
 
 
@@ -91,6 +110,11 @@ public class InstructionProcessor extends TypedAtomicActor{
 		PC = ((IntToken)initPC.getToken()).intValue();
 		setState(InstructionProcessor.FETCH);
 		timer=0;
+		requested=false;
+
+		counters = new PerformanceCounters(getFullName(), COUNTER_NAMES);
+		counters.addRatio("cpi", CYCLES, INSTRUCTIONS);
+		counters.register("InstructionProcessor");
 	}
 
 
@@ -104,6 +128,10 @@ public class InstructionProcessor extends TypedAtomicActor{
 
 			clk.get(0); // consume clock token
 			if(timer!=0) timer--;  // decrement timer
+			boolean resend = requested; // the request sent on the last tick is still waiting for its GRANT
+			requested = false;
+			counters.increment(CYCLES);
+			counters.increment(STATE_CYCLES + state);
 
 
 			//
@@ -147,6 +175,7 @@ public class InstructionProcessor extends TypedAtomicActor{
 
 					RecordToken token = (RecordToken)input.get(0);
 					IntToken insttype = (IntToken) token.get("type");
+					counters.increment(INSTRUCTIONS);
 
 					if(insttype.intValue()==Instruction.EXECUTE){   // must wait for a number of clock cycles
 
@@ -188,19 +217,25 @@ public class InstructionProcessor extends TypedAtomicActor{
 				// WRITE (again, potentially), no state change
 				//
 				else if(state == InstructionProcessor.WRITE){
-					output.send(0, new Instruction(Instruction.WRITE, rdata, raddress, -1).getToken());
+					if(resend) counters.increment(GRANT_WAIT_CYCLES);
+					requested = true;
+					output.send(0, Instruction.getToken(Instruction.WRITE, rdata, raddress, -1));
 				}
 				//
 				// READ (again, potentially), no state change
 				//
 				else if(state == InstructionProcessor.READ){
-					output.send(0, new Instruction(Instruction.READ, -1, raddress, -1).getToken());
+					if(resend) counters.increment(GRANT_WAIT_CYCLES);
+					requested = true;
+					output.send(0, Instruction.getToken(Instruction.READ, -1, raddress, -1));
 				}
 				//
 				// FETCH (again, potentially), no state change
 				//
 				else if(state == InstructionProcessor.FETCH){
-					output.send(0, new Instruction(Instruction.READ, -1, PC, -1).getToken()); // issues a read request to the memory position in the PC
+					if(resend) counters.increment(GRANT_WAIT_CYCLES);
+					requested = true;
+					output.send(0, Instruction.getToken(Instruction.READ, -1, PC, -1)); // issues a read request to the memory position in the PC
 				}
 			}
 		}
@@ -211,6 +246,24 @@ public class InstructionProcessor extends TypedAtomicActor{
 
 
 
+	public void wrapup() throws IllegalActionException{
+
+		super.wrapup();
+		if(!countersFile.stringValue().isEmpty()){
+			try{
+				counters.writeCsv(countersFile.stringValue());
+			}
+			catch(IOException e){
+				throw new IllegalActionException(this, e, "Writing the counters failed");
+			}
+		}
+		counters.unregister();
+
+	}
+
+
+
+
 	protected void setState(int newstate) throws NoRoomException, IllegalActionException{
 
 		state = newstate;
@@ -0,0 +1,93 @@
+package lsi.instruction;
+
+/**
+ * Least frequently used: evicts the way with the fewest accesses since it was filled, the least recently
+ * used one among equals. Each set keeps its ways in a binary min-heap, so updates take log2(ways) steps.
+ */
+public class LfuPolicy extends ReplacementPolicy {
+
+	// The heap of a set occupies [set * ways, (set + 1) * ways) and holds entries (set * ways + way)
+	private int[] heap;
+	private int[] position; // entry -> index in its set's heap
+	private int[] count;    // entry -> accesses since it was filled
+	private long[] lastUse; // entry -> tie breaker
+	private long clock = 0;
+
+	public LfuPolicy(int sets, int ways) {
+		super(sets, ways);
+		int entries = sets * ways;
+		heap = new int[entries];
+		position = new int[entries];
+		count = new int[entries];
+		lastUse = new long[entries];
+		for(int i = 0; i < entries; i++) {
+			heap[i] = i;
+			position[i] = i % ways;
+		}
+	}
+
+	public void hit(int set, int way) {
+		int entry = set * ways + way;
+		count[entry]++;
+		lastUse[entry] = ++clock;
+		siftDown(set, position[entry]); // the entry only got bigger
+	}
+
+	public int victim(int set, int line) {
+		return heap[set * ways] - set * ways;
+	}
+
+	public void filled(int set, int way, int line) {
+		int entry = set * ways + way;
+		count[entry] = 1;
+		lastUse[entry] = ++clock;
+		siftUp(set, position[entry]);
+		siftDown(set, position[entry]);
+	}
+
+	private boolean less(int a, int b) {
+		return count[a] < count[b] || (count[a] == count[b] && lastUse[a] < lastUse[b]);
+	}
+
+	private void siftUp(int set, int i) {
+		int base = set * ways;
+		while(i > 0) {
+			int parent = (i - 1) >> 1;
+			if(!less(heap[base + i], heap[base + parent])) {
+				return;
+			}
+			swap(base, i, parent);
+			i = parent;
+		}
+	}
+
+	private void siftDown(int set, int i) {
+		int base = set * ways;
+		while(true) {
+			int smallest = i;
+			int left = 2 * i + 1;
+			int right = left + 1;
+			if(left < ways && less(heap[base + left], heap[base + smallest])) {
+				smallest = left;
+			}
+			if(right < ways && less(heap[base + right], heap[base + smallest])) {
+				smallest = right;
+			}
+			if(smallest == i) {
+				return;
+			}
+			swap(base, i, smallest);
+			i = smallest;
+		}
+	}
+
+	private void swap(int base, int i, int j) {
+		int a = heap[base + i];
+		int b = heap[base + j];
+		heap[base + i] = b;
+		heap[base + j] = a;
+		position[a] = j;
+		position[b] = i;
+	}
+
+}
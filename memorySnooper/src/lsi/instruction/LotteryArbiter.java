@@ -0,0 +1,42 @@
+package lsi.instruction;
+
+import java.util.Random;
+
+/**
+ * Lottery: each master holds weight[i] tickets and the winner is drawn among the tickets of the requesting masters.
+ * The generator is seeded so that two runs with the same seed grant the bus in the same order.
+ */
+public class LotteryArbiter extends Arbiter {
+
+	private int[] tickets;
+	private Random random;
+
+	public LotteryArbiter(int masters, int[] weights, long seed) {
+		super(masters);
+		tickets = weights.clone();
+		random = new Random(seed);
+	}
+
+	public int select(int[] requests, long cycle) {
+		int total = 0;
+		for(int i = 0; i < masters; i++) {
+			if(requests[i] == 1) {
+				total += tickets[i];
+			}
+		}
+		if(total == 0) {
+			return -1;
+		}
+		int draw = random.nextInt(total);
+		for(int i = 0; i < masters; i++) {
+			if(requests[i] == 1) {
+				draw -= tickets[i];
+				if(draw < 0) {
+					return i;
+				}
+			}
+		}
+		return -1;
+	}
+
+}
@@ -0,0 +1,27 @@
+package lsi.instruction;
+
+/**
+ * Least recently used: each set keeps its ways in recency order in a linked list.
+ */
+public class LruPolicy extends ReplacementPolicy {
+
+	private IndexedList recency;
+
+	public LruPolicy(int sets, int ways) {
+		super(sets, ways);
+		recency = new IndexedList(sets * ways, sets);
+	}
+
+	public void hit(int set, int way) {
+		recency.addFirst(set, set * ways + way);
+	}
+
+	public int victim(int set, int line) {
+		return recency.last(set) - set * ways;
+	}
+
+	public void filled(int set, int way, int line) {
+		recency.addFirst(set, set * ways + way);
+	}
+
+}
@@ -0,0 +1,209 @@
+package lsi.instruction;
+
+/**
+ * Timing model of a main memory split in banks that serve accesses in parallel.
+ *
+ * Addresses are spread over the banks either by their low-order bits or by XOR-folding the higher bits into them,
+ * which keeps power of two strides from hitting a single bank. Each access keeps its bank busy for latency cycles,
+ * an access to a busy bank waits for it (a conflict) while accesses to other banks proceed.
+ *
+ * READ words are latched when the read is accepted and queued until their bank has served them. Responses leave in
+ * the order the reads were accepted, at most one per cycle, since the bus routes each response to the oldest
+ * outstanding master.
+ */
+public class MemoryBanks {
+
+	// Names accepted as interleaving, also the choices of the MemoryController interleaving parameter
+	public static final String LOW_ORDER = "LOW_ORDER";
+	public static final String XOR = "XOR";
+
+	private int banks;
+	private int bankBits;
+	private boolean xor;
+	private int latency;
+
+	private long[] busyUntil; // first cycle each bank is free
+	private long[] accesses, conflicts, busyCycles, conflictCycles;
+
+	// Reads waiting for their bank or for the ones accepted before them, oldest at head
+	private long[] ready;
+	private int[] type, data, address, time;
+	private int head = 0, count = 0;
+
+	/**
+	 * @param banks Number of banks, a power of two
+	 * @param interleaving LOW_ORDER or XOR
+	 * @param latency Cycles a bank is busy per access, 1 answers a read on the next cycle
+	 */
+	public MemoryBanks(int banks, String interleaving, int latency) {
+		if(banks <= 0 || (banks & (banks - 1)) != 0) {
+			throw new IllegalArgumentException("Number of banks must be a power of two, got " + banks);
+		}
+		if(latency <= 0) {
+			throw new IllegalArgumentException("Bank latency must be positive, got " + latency);
+		}
+		if(LOW_ORDER.equalsIgnoreCase(interleaving)) {
+			xor = false;
+		} else if(XOR.equalsIgnoreCase(interleaving)) {
+			xor = true;
+		} else {
+			throw new IllegalArgumentException("Unknown interleaving: " + interleaving);
+		}
+		this.banks = banks;
+		this.bankBits = Integer.numberOfTrailingZeros(banks);
+		this.latency = latency;
+		busyUntil = new long[banks];
+		accesses = new long[banks];
+		conflicts = new long[banks];
+		busyCycles = new long[banks];
+		conflictCycles = new long[banks];
+		ready = new long[8];
+		type = new int[8];
+		data = new int[8];
+		address = new int[8];
+		time = new int[8];
+	}
+
+	public int bankOf(int address) {
+		int bank = address;
+		if(xor && bankBits > 0) {
+			for(int rest = address >>> bankBits; rest != 0; rest >>>= bankBits) {
+				bank ^= rest;
+			}
+		}
+		return bank & (banks - 1);
+	}
+
+	/**
+	 * Accepts a read of the given word in the given cycle. Its fields are latched now, so a later write does not change it.
+	 */
+	public void read(MemoryImage memory, int word, long cycle) {
+		if(count == ready.length) {
+			grow();
+		}
+		int i = (head + count) % ready.length;
+		ready[i] = occupy(word, cycle);
+		type[i] = memory.getType(word);
+		data[i] = memory.getData(word);
+		address[i] = memory.getAddress(word);
+		time[i] = memory.getTime(word);
+		count++;
+	}
+
+	/**
+	 * Accounts for a write accepted in the given cycle. The caller stores the word immediately.
+	 */
+	public void write(int word, long cycle) {
+		occupy(word, cycle);
+	}
+
+	/**
+	 * Returns true if the oldest pending read can be sent back in the given cycle.
+	 */
+	public boolean hasResponse(long cycle) {
+		return count > 0 && ready[head] <= cycle;
+	}
+
+	public int responseType() {
+		return type[head];
+	}
+
+	public int responseData() {
+		return data[head];
+	}
+
+	public int responseAddress() {
+		return address[head];
+	}
+
+	public int responseTime() {
+		return time[head];
+	}
+
+	/**
+	 * Returns true if reads are waiting to be sent back.
+	 */
+	public boolean hasPending() {
+		return count > 0;
+	}
+
+	/**
+	 * Removes the oldest pending read once it has been sent.
+	 */
+	public void pop() {
+		head = (head + 1) % ready.length;
+		count--;
+	}
+
+	public int getBanks() {
+		return banks;
+	}
+
+	public long getAccesses(int bank) {
+		return accesses[bank];
+	}
+
+	public long getConflicts(int bank) {
+		return conflicts[bank];
+	}
+
+	public long getBusyCycles(int bank) {
+		return busyCycles[bank];
+	}
+
+	/**
+	 * Formats the accesses, conflicts and utilization of each bank over the given number of cycles.
+	 */
+	public String report(long cycles) {
+		StringBuilder sb = new StringBuilder();
+		for(int b = 0; b < banks; b++) {
+			sb.append("bank").append(b).append(" accesses=").append(accesses[b])
+				.append(" conflicts=").append(conflicts[b])
+				.append(" conflict-cycles=").append(conflictCycles[b])
+				.append(" utilization=").append(cycles == 0 ? 0 : (double)busyCycles[b] / cycles)
+				.append('\n');
+		}
+		return sb.toString();
+	}
+
+	/*
+	 * Reserves the bank of the word, returns the cycle the access is complete.
+	 */
+	private long occupy(int word, long cycle) {
+		int bank = bankOf(word);
+		long start = cycle;
+		if(busyUntil[bank] > cycle) {
+			start = busyUntil[bank];
+			conflicts[bank]++;
+			conflictCycles[bank] += start - cycle;
+		}
+		busyUntil[bank] = start + latency;
+		accesses[bank]++;
+		busyCycles[bank] += latency;
+		return start + latency;
+	}
+
+	private void grow() {
+		int capacity = ready.length * 2;
+		long[] ready = new long[capacity];
+		int[] type = new int[capacity];
+		int[] data = new int[capacity];
+		int[] address = new int[capacity];
+		int[] time = new int[capacity];
+		for(int k = 0; k < count; k++) {
+			int i = (head + k) % this.ready.length;
+			ready[k] = this.ready[i];
+			type[k] = this.type[i];
+			data[k] = this.data[i];
+			address[k] = this.address[i];
+			time[k] = this.time[i];
+		}
+		this.ready = ready;
+		this.type = type;
+		this.data = data;
+		this.address = address;
+		this.time = time;
+		head = 0;
+	}
+
+}
@@ -1,200 +1,257 @@
-package lsi.instruction;
-
-/*
- * 
- * Actor represents a 16-bit word Memory and its controller.
- * 
- * Memory contents are instances of the Instruction class.
- * 
- * Its contents are initialised out of a text file specified as a parameter, which is parsed upon initialisation.
- * 
- * It receives RecordToken instances (following the lsi.instruction.Instruction format) over its input port, and reacts
- * to read or write requests accordingly.
- * 
- *  * 
- */
-
-
-import java.io.BufferedReader;
-import java.io.FileReader;
-import java.io.IOException;
-import java.util.Scanner;
-import java.util.StringTokenizer;
-
-import ptolemy.actor.TypedAtomicActor;
-import ptolemy.actor.TypedIOPort;
-import ptolemy.actor.util.Time;
-import ptolemy.data.DoubleToken;
-import ptolemy.data.IntToken;
-import ptolemy.data.RecordToken;
-import ptolemy.data.expr.StringParameter;
-import ptolemy.data.type.BaseType;
-import ptolemy.kernel.CompositeEntity;
-import ptolemy.kernel.util.IllegalActionException;
-import ptolemy.kernel.util.NameDuplicationException;
-
-@SuppressWarnings("serial")
-public class MemoryController extends TypedAtomicActor {
-
-
-	protected TypedIOPort input, output, clk;
-	protected Instruction[] memory;
-	int readAddress;
-	StringParameter memoryFile;
-
-	public MemoryController(CompositeEntity container, String name)
-			throws NameDuplicationException, IllegalActionException  {
-
-		super(container, name);
-
-		input = new TypedIOPort(this, "input", true, false);
-		output = new TypedIOPort(this, "output", false, true);
-
-		clk = new TypedIOPort(this, "clk", true, false);
-
-
-		input.setTypeEquals(Instruction.getTokenType());
-		output.setTypeEquals(Instruction.getTokenType());
-
-		memoryFile = new StringParameter(this, "memory file");
-		memoryFile.setExpression("test");
-
-
-	}
-
-	@Override
-	public void initialize() throws IllegalActionException{
-
-		readAddress = -1;
-		memory = new Instruction[65536];
-		for(int i=0;i<memory.length;i++){
-
-			memory[i]= new Instruction(-1, 0, -1, -1); 						// data: 0
-
-		}
-
-
-		if(memoryFile.stringValue().equals("test")){
-			createTestProgram();
-		}
-		else{
-			try{
-				FileReader f = new FileReader(memoryFile.stringValue());
-				BufferedReader r = new BufferedReader(f);
-				String line;
-				while ((line = r.readLine()) != null) {
-					StringTokenizer st = new StringTokenizer(line);
-					int storage = Integer.parseInt(st.nextToken()); 
-					int type = Integer.parseInt(st.nextToken()); 
-					int data = Integer.parseInt(st.nextToken()); 
-					int address = Integer.parseInt(st.nextToken()); 
-					int time = Integer.parseInt(st.nextToken()); 
-
-					memory[storage] = new Instruction(type, data, address, time);
-				}
-				
-				r.close();
-			}
-			catch(IOException e){
-				System.out.println("Reading from file failed: " + e);
-			}
-
-		}
-
-	}
-
-
-	@Override
-	public void fire()throws IllegalActionException{
-
-
-		if(clk.hasToken(0)){
-
-			clk.get(0); // consume clock token
-
-			if(readAddress!=-1){ //if a read has been requested, perform it
-
-				output.send(0, memory[readAddress].getToken()); // sends back the content of the requested memory address
-				readAddress=-1;  // confirm that read has been performed
-			}	
-		}
-
-		// receive request
-
-		else if(input.hasToken(0)){ 
-
-			RecordToken t = (RecordToken)input.get(0);
-			int type = ((IntToken)t.get("type")).intValue();
-			if(type==Instruction.READ){  // set address to be read and sent back on the next clock cycle
-				readAddress = ((IntToken)t.get("address")).intValue();
-				assert readAddress != -1;
-			}
-			else if(type==Instruction.WRITE){ // write to memory immediately
-				int address = ((IntToken)t.get("address")).intValue();
-				assert address != -1;
-				int data = ((IntToken)t.get("data")).intValue();
-				assert data != -1;
-
-				memory[address] = new Instruction(-1,data,-1,-1);  // write to memory
-			}
-
-		}		
-
-	}
-
-	@Override
-	public void wrapup(){
-
-		for(int i=0;i<memory.length;i++){
-			System.out.println(i+" "+memory[i]);
-		}
-	}
-
-
-
-
-
-	public void createTestProgram(){
-
-		memory[0] = new Instruction(Instruction.READ, 41260, 10, -1);  		//READ 10
-		memory[1] = new Instruction(Instruction.READ, 41204, 11, -1);  		//READ 11
-		memory[2] = new Instruction(Instruction.EXECUTE, 8240, -1, 1);  	//EXECUTE 1
-		memory[3] = new Instruction(Instruction.WRITE, 4096, 21, -1);  		//WRITE  on 21
-		memory[4] = new Instruction(Instruction.READ, 41218, 12, -1);  		//READ 12
-		memory[5] = new Instruction(Instruction.WRITE, 4122, 22, -1);  		//WRITE  on 22
-		memory[6] = new Instruction(Instruction.JUMP, 61444, 100, -1);  		//JUMP to 100
-
-
-		memory[10] = new Instruction(-1, 910, -1, -1); 						// data: 910
-		memory[11] = new Instruction(-1, 911, -1, -1); 						// data: 911
-		memory[12] = new Instruction(-1, 912, -1, -1); 						// data: 912
-
-
-
-		memory[100] = new Instruction(Instruction.READ, 44011, 110, -1);  		//READ 110
-		memory[101] = new Instruction(Instruction.READ, 44012, 111, -1);  		//READ 111
-		memory[102] = new Instruction(Instruction.EXECUTE, 8844, -1, 1); 	 	//EXECUTE 1
-		memory[103] = new Instruction(Instruction.WRITE, 5189, 23, -1);  	//WRITE  on 23
-		memory[104] = new Instruction(Instruction.READ, 44011, 112, -1);  		//READ 112
-		memory[105] = new Instruction(Instruction.WRITE, 5189, 24, -1);  	//WRITE  on 24
-		memory[106] = new Instruction(Instruction.EXECUTE, 8333, -1, 1000);  	//EXECUTE 1000
-		memory[107] = new Instruction(Instruction.JUMP, 61444, 0,-1);  		//JUMP to 0
-
-		memory[110] = new Instruction(-1, 1910, -1, -1); 						// data: 1910
-		memory[111] = new Instruction(-1, 1911, -1, -1); 						// data: 1911
-		memory[112] = new Instruction(-1, 1912, -1, -1); 						// data: 1912
-
-
-
-
-	}
-
-
-	public void pruneDependencies() {
-		super.pruneDependencies();
-		removeDependency(input, output);
-		removeDependency(clk, output);
-
-	}
-
+package lsi.instruction;
+
+/*
+ * 
+ * Actor represents a 16-bit word Memory and its controller.
+ * 
+ * Memory contents are held in a MemoryImage, the fields of the Instruction class stored in parallel int columns,
+ * so writes update the columns in place instead of allocating a new word.
+ * 
+ * Its contents are initialised out of a text file specified as a parameter, which is parsed upon initialisation.
+ * The file can also be a binary image written by MemoryImage, which is mapped instead of parsed.
+ * 
+ * It receives RecordToken instances (following the lsi.instruction.Instruction format) over its input port, and reacts
+ * to read or write requests accordingly.
+ * 
+ * The memory is split in banks (see MemoryBanks) set by the banks, interleaving and bank latency parameters. Each access keeps
+ * its bank busy for bank latency cycles while the other banks keep serving, and reads are answered in the order they were
+ * received. The defaults, one bank with a latency of one cycle, answer a read on the clock cycle after the request.
+ * Per bank accesses, conflicts and utilization are printed on wrapup.
+ * 
+ * Reads, writes and cycles are kept in PerformanceCounters, readable live over JMX and appended as CSV to the counters file
+ * on wrapup if one is set.
+ * 
+ * On wrapup only the words written during the run are printed, through a buffered writer. The whole memory can
+ * also be saved as a binary image by setting the snapshot file parameter.
+ * 
+ *  * 
+ */
+
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import ptolemy.actor.TypedAtomicActor;
+import ptolemy.actor.TypedIOPort;
+import ptolemy.actor.util.Time;
+import ptolemy.data.DoubleToken;
+import ptolemy.data.IntToken;
+import ptolemy.data.RecordToken;
+import ptolemy.data.expr.Parameter;
+import ptolemy.data.expr.StringParameter;
+import ptolemy.data.type.BaseType;
+import ptolemy.kernel.CompositeEntity;
+import ptolemy.kernel.util.IllegalActionException;
+import ptolemy.kernel.util.NameDuplicationException;
+
+@SuppressWarnings("serial")
+public class MemoryController extends TypedAtomicActor {
+
+
+	protected TypedIOPort input, output, clk;
+	protected MemoryImage memory;
+	protected boolean[] modified; // words written since initialize
+	protected MemoryBanks banks; // pending reads and bank timing
+	protected long cycle; // clock cycles since initialize
+	StringParameter memoryFile;
+	StringParameter snapshotFile;
+	Parameter bankCount;
+	StringParameter interleaving;
+	Parameter bankLatency;
+	StringParameter countersFile;
+
+	protected static final int CYCLES = 0, READS = 1, WRITES = 2;
+	protected static final String[] COUNTER_NAMES = {"cycles", "reads", "writes"};
+	protected PerformanceCounters counters;
+
+	public MemoryController(CompositeEntity container, String name)
+			throws NameDuplicationException, IllegalActionException  {
+
+		super(container, name);
+
+		input = new TypedIOPort(this, "input", true, false);
+		output = new TypedIOPort(this, "output", false, true);
+
+		clk = new TypedIOPort(this, "clk", true, false);
+
+
+		input.setTypeEquals(Instruction.getTokenType());
+		output.setTypeEquals(Instruction.getTokenType());
+
+		memoryFile = new StringParameter(this, "memory file");
+		memoryFile.setExpression("test");
+
+		snapshotFile = new StringParameter(this, "snapshot file");
+		snapshotFile.setExpression("");
+
+		bankCount = new Parameter(this, "banks");
+		bankCount.setTypeEquals(BaseType.INT);
+		bankCount.setExpression("1");
+		interleaving = new StringParameter(this, "interleaving");
+		interleaving.setExpression(MemoryBanks.LOW_ORDER);
+		interleaving.addChoice(MemoryBanks.LOW_ORDER);
+		interleaving.addChoice(MemoryBanks.XOR);
+		bankLatency = new Parameter(this, "bank latency");
+		bankLatency.setTypeEquals(BaseType.INT);
+		bankLatency.setExpression("1");
+
+		countersFile = new StringParameter(this, "counters file");
+		countersFile.setExpression("");
+
+	}
+
+	@Override
+	public void initialize() throws IllegalActionException{
+
+		try{
+			banks = new MemoryBanks(((IntToken)bankCount.getToken()).intValue(), interleaving.stringValue(), ((IntToken)bankLatency.getToken()).intValue());
+		}
+		catch(IllegalArgumentException e){
+			throw new IllegalActionException(this, e.getMessage());
+		}
+		cycle = 0;
+		counters = new PerformanceCounters(getFullName(), COUNTER_NAMES);
+		counters.register("MemoryController");
+		modified = new boolean[MemoryImage.WORDS];
+
+
+		if(memoryFile.stringValue().equals("test")){
+			memory = new MemoryImage();					// every word is data: 0
+			createTestProgram();
+		}
+		else{
+			try{
+				memory = MemoryImage.open(memoryFile.stringValue());	// mapped if binary, parsed otherwise
+			}
+			catch(IOException e){
+				System.out.println("Reading from file failed: " + e);
+				memory = new MemoryImage();				// every word is data: 0
+			}
+
+		}
+
+	}
+
+
+	@Override
+	public void fire()throws IllegalActionException{
+
+
+		if(clk.hasToken(0)){
+
+			clk.get(0); // consume clock token
+			cycle++;
+			counters.increment(CYCLES);
+
+			if(banks.hasResponse(cycle)){ //if the oldest read has been served by its bank, send it back
+
+				output.send(0, Instruction.getToken(banks.responseType(), banks.responseData(), banks.responseAddress(), banks.responseTime())); // sends back the content of the requested memory address
+				banks.pop();  // confirm that read has been performed
+			}	
+		}
+
+		// receive request
+
+		else if(input.hasToken(0)){ 
+
+			RecordToken t = (RecordToken)input.get(0);
+			int type = ((IntToken)t.get("type")).intValue();
+			if(type==Instruction.READ){  // queue the read, sent back once its bank has served it
+				int readAddress = ((IntToken)t.get("address")).intValue();
+				assert readAddress != -1;
+				banks.read(memory, readAddress, cycle);
+				counters.increment(READS);
+			}
+			else if(type==Instruction.WRITE){ // write to memory immediately
+				int address = ((IntToken)t.get("address")).intValue();
+				assert address != -1;
+				int data = ((IntToken)t.get("data")).intValue();
+				assert data != -1;
+
+				memory.write(address, data);  // write to memory
+				modified[address] = true;
+				banks.write(address, cycle);
+				counters.increment(WRITES);
+			}
+
+		}		
+
+	}
+
+	@Override
+	public void wrapup() throws IllegalActionException{
+
+		System.out.print(getName()+" over "+cycle+" cycles\n"+banks.report(cycle));
+		try{
+			Writer out = new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16);
+			for(int i=0;i<MemoryImage.WORDS;i++){
+				if(modified[i]){
+					out.write(i+" "+Instruction.toString(memory.getType(i), memory.getData(i), memory.getAddress(i), memory.getTime(i))+"\n");
+				}
+			}
+			out.flush(); // not closed, System.out stays open
+
+			if(!snapshotFile.stringValue().isEmpty()){
+				memory.save(snapshotFile.stringValue());
+			}
+			if(!countersFile.stringValue().isEmpty()){
+				counters.writeCsv(countersFile.stringValue());
+			}
+		}
+		catch(IOException e){
+			throw new IllegalActionException(this, e, "Writing the memory dump failed");
+		}
+		counters.unregister();
+		super.wrapup();
+	}
+
+
+
+
+
+	public void createTestProgram(){
+
+		memory.set(0, Instruction.READ, 41260, 10, -1);  		//READ 10
+		memory.set(1, Instruction.READ, 41204, 11, -1);  		//READ 11
+		memory.set(2, Instruction.EXECUTE, 8240, -1, 1);  	//EXECUTE 1
+		memory.set(3, Instruction.WRITE, 4096, 21, -1);  		//WRITE  on 21
+		memory.set(4, Instruction.READ, 41218, 12, -1);  		//READ 12
+		memory.set(5, Instruction.WRITE, 4122, 22, -1);  		//WRITE  on 22
+		memory.set(6, Instruction.JUMP, 61444, 100, -1);  		//JUMP to 100
+
+
+		memory.set(10, -1, 910, -1, -1); 						// data: 910
+		memory.set(11, -1, 911, -1, -1); 						// data: 911
+		memory.set(12, -1, 912, -1, -1); 						// data: 912
+
+
+
+		memory.set(100, Instruction.READ, 44011, 110, -1);  		//READ 110
+		memory.set(101, Instruction.READ, 44012, 111, -1);  		//READ 111
+		memory.set(102, Instruction.EXECUTE, 8844, -1, 1); 	 	//EXECUTE 1
+		memory.set(103, Instruction.WRITE, 5189, 23, -1);  	//WRITE  on 23
+		memory.set(104, Instruction.READ, 44011, 112, -1);  		//READ 112
+		memory.set(105, Instruction.WRITE, 5189, 24, -1);  	//WRITE  on 24
+		memory.set(106, Instruction.EXECUTE, 8333, -1, 1000);  	//EXECUTE 1000
+		memory.set(107, Instruction.JUMP, 61444, 0,-1);  		//JUMP to 0
+
+		memory.set(110, -1, 1910, -1, -1); 						// data: 1910
+		memory.set(111, -1, 1911, -1, -1); 						// data: 1911
+		memory.set(112, -1, 1912, -1, -1); 						// data: 1912
+
+
+
+
+	}
+
+
+	public void pruneDependencies() {
+		super.pruneDependencies();
+		removeDependency(input, output);
+		removeDependency(clk, output);
+
+	}
+
 }
\ No newline at end of file
@@ -0,0 +1,217 @@
+package lsi.instruction;
+
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.StringTokenizer;
+
+/**
+ * The 65,536 words of the main memory, held as four parallel int columns with the fields of Instruction.
+ *
+ * Can be loaded from a text file in the memory.txt format, one word per line:
+ * storage type data address time
+ * Words not listed in the file are DATA words holding 0, as in MemoryController.
+ *
+ * Can also be saved to and mapped from a binary image: a header of two ints, MAGIC and WORDS, followed by the
+ * type, data, address and time columns of WORDS big-endian ints each. Mapping it reads the words straight from a
+ * read-only mapping of the file, with no parsing or copying, and repeated runs share its pages through the page cache.
+ * The first write copies the columns to the heap, the file is never changed.
+ * Convert a text file with: java lsi.instruction.MemoryImage memory.txt memory.bin
+ */
+public class MemoryImage {
+
+	public static final int WORDS = 65536;
+	public static final int MAGIC = 0x4C53494D; // "LSIM"
+	private static final int HEADER_INTS = 2;
+	private static final long BINARY_BYTES = (HEADER_INTS + 4L * WORDS) * 4;
+
+	// Columns indexed by storage address, on the heap or in a read-only mapping of a binary image until the first write
+	private IntBuffer type, data, address, time;
+
+	/**
+	 * Creates a memory in which every word is DATA holding 0.
+	 */
+	public MemoryImage() {
+		this(IntBuffer.allocate(WORDS), IntBuffer.allocate(WORDS), IntBuffer.allocate(WORDS), IntBuffer.allocate(WORDS));
+		for(int i = 0; i < WORDS; i++) {
+			set(i, Instruction.DATA, 0, -1, -1);
+		}
+	}
+
+	/**
+	 * Wraps the given columns of WORDS ints each, without initialising them.
+	 */
+	private MemoryImage(IntBuffer type, IntBuffer data, IntBuffer address, IntBuffer time) {
+		this.type = type;
+		this.data = data;
+		this.address = address;
+		this.time = time;
+	}
+
+	public void set(int storage, int type, int data, int address, int time) {
+		if(this.type.isReadOnly()) {
+			this.type = heapColumn(this.type);
+			this.data = heapColumn(this.data);
+			this.address = heapColumn(this.address);
+			this.time = heapColumn(this.time);
+		}
+		this.type.put(storage, type);
+		this.data.put(storage, data);
+		this.address.put(storage, address);
+		this.time.put(storage, time);
+	}
+
+	public int getType(int storage) {
+		return type.get(storage);
+	}
+
+	public int getData(int storage) {
+		return data.get(storage);
+	}
+
+	public int getAddress(int storage) {
+		return address.get(storage);
+	}
+
+	public int getTime(int storage) {
+		return time.get(storage);
+	}
+
+	/**
+	 * Returns a copy of the memory on the heap, which the writes of one run cannot share with another.
+	 */
+	public MemoryImage copy() {
+		return new MemoryImage(heapColumn(type), heapColumn(data), heapColumn(address), heapColumn(time));
+	}
+
+	// A copy of the column on the heap
+	private static IntBuffer heapColumn(IntBuffer column) {
+		IntBuffer copy = IntBuffer.allocate(WORDS);
+		copy.put(column(column));
+		copy.clear();
+		return copy;
+	}
+
+	// A view of the whole column, so that bulk transfers leave its position alone
+	private static IntBuffer column(IntBuffer column) {
+		IntBuffer view = column.duplicate();
+		view.clear();
+		return view;
+	}
+
+	/**
+	 * Stores a data word, the way MemoryController handles a WRITE.
+	 */
+	public void write(int storage, int data) {
+		set(storage, Instruction.DATA, data, -1, -1);
+	}
+
+	/**
+	 * Parses a memory file in the memory.txt format.
+	 */
+	public static MemoryImage load(String file) throws IOException {
+		MemoryImage image = new MemoryImage();
+		BufferedReader r = new BufferedReader(new FileReader(file));
+		try {
+			String line;
+			while ((line = r.readLine()) != null) {
+				StringTokenizer st = new StringTokenizer(line);
+				if(!st.hasMoreTokens()) {
+					continue;
+				}
+				int storage = Integer.parseInt(st.nextToken());
+				int type = Integer.parseInt(st.nextToken());
+				int data = Integer.parseInt(st.nextToken());
+				int address = Integer.parseInt(st.nextToken());
+				int time = Integer.parseInt(st.nextToken());
+				image.set(storage, type, data, address, time);
+			}
+		} finally {
+			r.close();
+		}
+		return image;
+	}
+
+	/**
+	 * Returns true if the file starts with the binary image header.
+	 */
+	public static boolean isBinary(String file) throws IOException {
+		DataInputStream in = new DataInputStream(new FileInputStream(file));
+		try {
+			return in.readInt() == MAGIC;
+		} catch(IOException e) {
+			return false; // shorter than the header
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Maps a binary image read-only and reads the words from the mapping until the first write.
+	 */
+	public static MemoryImage map(String file) throws IOException {
+		RandomAccessFile f = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = f.getChannel();
+			if(channel.size() != BINARY_BYTES) {
+				throw new IOException(file + " is not a binary memory image");
+			}
+			IntBuffer ints = channel.map(FileChannel.MapMode.READ_ONLY, 0, BINARY_BYTES).asIntBuffer();
+			if(ints.get() != MAGIC || ints.get() != WORDS) {
+				throw new IOException(file + " is not a binary memory image");
+			}
+			return new MemoryImage(slice(ints, 0), slice(ints, 1), slice(ints, 2), slice(ints, 3));
+		} finally {
+			f.close(); // the mapping stays valid once the channel is closed
+		}
+	}
+
+	// The given column of a mapped binary image
+	private static IntBuffer slice(IntBuffer ints, int column) {
+		ints.limit(HEADER_INTS + (column + 1) * WORDS);
+		ints.position(HEADER_INTS + column * WORDS);
+		return ints.slice();
+	}
+
+	/**
+	 * Opens a memory file in either format.
+	 */
+	public static MemoryImage open(String file) throws IOException {
+		return isBinary(file) ? map(file) : load(file);
+	}
+
+	/**
+	 * Writes the image in the binary format.
+	 */
+	public void save(String file) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate((int)BINARY_BYTES);
+		IntBuffer ints = buffer.asIntBuffer();
+		ints.put(MAGIC).put(WORDS);
+		ints.put(column(type)).put(column(data)).put(column(address)).put(column(time));
+		RandomAccessFile f = new RandomAccessFile(file, "rw");
+		try {
+			f.setLength(0);
+			FileChannel channel = f.getChannel();
+			while(buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+		} finally {
+			f.close();
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		if(args.length != 2) {
+			System.err.println("Usage: java lsi.instruction.MemoryImage memory.txt memory.bin");
+			System.exit(1);
+		}
+		open(args[0]).save(args[1]);
+	}
+
+}
@@ -0,0 +1,207 @@
+package lsi.instruction;
+
+import ptolemy.actor.TypedAtomicActor;
+import ptolemy.actor.TypedIOPort;
+import ptolemy.data.IntToken;
+import ptolemy.data.RecordToken;
+import ptolemy.data.expr.Parameter;
+import ptolemy.data.expr.StringParameter;
+import ptolemy.data.type.BaseType;
+import ptolemy.kernel.CompositeEntity;
+import ptolemy.kernel.util.IllegalActionException;
+import ptolemy.kernel.util.NameDuplicationException;
+
+/**
+ * A 2D mesh network-on-chip connecting masters to several memories, a drop-in alternative to SingleSharedMemoryBus.
+ *
+ * Masters are connected to the input and output multiports as on the bus and speak the same protocol: a request is
+ * echoed back as the grant, and a READ is then answered with the DATA word. Each channel of the toMemory and
+ * fromMemory multiports leads to its own MemoryController, which all load the same memory image; addresses are spread
+ * over the memories by the interleaving parameter, as over the banks of a MemoryController.
+ *
+ * The network itself is a MeshNetwork of columns x rows nodes with XY routing and link buffers of bufferDepth packets.
+ * Master i and memory m are attached to the nodes listed in masterNodes and memoryNodes, by default masters fill the
+ * nodes from the first one and memories from the last one backwards. A request is granted as soon as the network
+ * interface of its master has room for it, then travels to its memory; memories answer in the order requests reach
+ * them, so the responses of each memory are routed back to its oldest outstanding READ.
+ *
+ * On wrapup the mesh prints the latency and hops of requests and responses and, for every link, its throughput,
+ * the average cycles a packet waited in its buffer and its highest occupancy.
+ */
+@SuppressWarnings("serial")
+public class MeshInterconnect extends TypedAtomicActor {
+
+	protected TypedIOPort input, output, clk, toMemory, fromMemory;
+
+	protected Parameter columns, rows, bufferDepth;
+	protected StringParameter masterNodes; // comma separated node of each master, empty for the default placement
+	protected StringParameter memoryNodes; // comma separated node of each memory, empty for the default placement
+	protected StringParameter interleaving; // LOW_ORDER or XOR
+
+	protected int masters, memories;
+	protected MeshNetwork network;
+	protected MemoryBanks mapping; // only used to map addresses to memories
+	protected RecordToken[] pending; // accepted request of each master, granted and injected over the next clock cycle
+
+	// READs waiting for each memory, oldest at outstandingHead
+	protected int[][] outstanding;
+	protected int[] outstandingHead, outstandingCount;
+
+	public MeshInterconnect(CompositeEntity container, String name) throws NameDuplicationException, IllegalActionException {
+		super(container, name);
+
+		clk = new TypedIOPort(this, "clk", true, false);
+		input = new TypedIOPort(this, "input", true, false);
+		output = new TypedIOPort(this, "output", false, true);
+		toMemory = new TypedIOPort(this, "toMemory", false, true);
+		fromMemory = new TypedIOPort(this, "fromMemory", true, false);
+		input.setMultiport(true);
+		output.setMultiport(true);
+		toMemory.setMultiport(true);
+		fromMemory.setMultiport(true);
+		input.setTypeEquals(Instruction.getTokenType());
+		output.setTypeEquals(Instruction.getTokenType());
+		toMemory.setTypeEquals(Instruction.getTokenType());
+		fromMemory.setTypeEquals(Instruction.getTokenType());
+
+		columns = new Parameter(this, "columns");
+		columns.setTypeEquals(BaseType.INT);
+		columns.setExpression("4");
+		rows = new Parameter(this, "rows");
+		rows.setTypeEquals(BaseType.INT);
+		rows.setExpression("4");
+		bufferDepth = new Parameter(this, "bufferDepth");
+		bufferDepth.setTypeEquals(BaseType.INT);
+		bufferDepth.setExpression("4");
+		masterNodes = new StringParameter(this, "masterNodes");
+		masterNodes.setExpression("");
+		memoryNodes = new StringParameter(this, "memoryNodes");
+		memoryNodes.setExpression("");
+		interleaving = new StringParameter(this, "interleaving");
+		interleaving.setExpression(MemoryBanks.LOW_ORDER);
+		interleaving.addChoice(MemoryBanks.LOW_ORDER);
+		interleaving.addChoice(MemoryBanks.XOR);
+	}
+
+	public void initialize() throws IllegalActionException {
+		super.initialize();
+		masters = input.getWidth();
+		memories = toMemory.getWidth();
+		if(fromMemory.getWidth() != memories) {
+			throw new IllegalActionException(this, "toMemory and fromMemory must be connected to the same " + memories + " memories");
+		}
+		int width = ((IntToken)columns.getToken()).intValue();
+		int height = ((IntToken)rows.getToken()).intValue();
+		try {
+			int[] masterAt = parseNodes(masterNodes.stringValue(), masters);
+			int[] memoryAt = parseNodes(memoryNodes.stringValue(), memories);
+			if(masterAt == null) {
+				masterAt = new int[masters];
+				for(int i = 0; i < masters; i++) {
+					masterAt[i] = i;
+				}
+			}
+			if(memoryAt == null) {
+				memoryAt = new int[memories];
+				for(int m = 0; m < memories; m++) {
+					memoryAt[m] = width * height - 1 - m;
+				}
+			}
+			checkDistinct(masterAt, "masters");
+			checkDistinct(memoryAt, "memories");
+			network = new MeshNetwork(width, height, ((IntToken)bufferDepth.getToken()).intValue(), masterAt, memoryAt);
+			mapping = new MemoryBanks(memories, interleaving.stringValue(), 1);
+		} catch(IllegalArgumentException e) {
+			throw new IllegalActionException(this, e.getMessage());
+		}
+		pending = new RecordToken[masters];
+		outstanding = new int[memories][masters]; // a master waits for one READ at a time
+		outstandingHead = new int[memories];
+		outstandingCount = new int[memories];
+	}
+
+	public void fire() throws IllegalActionException {
+		if(clk.hasToken(0)) {
+			clk.get(0);
+			// grant the accepted requests and hand them to the network
+			for(int i = 0; i < masters; i++) {
+				if(pending[i] != null) {
+					output.send(i, pending[i]);
+					network.sendRequest(i, mapping.bankOf(((IntToken)pending[i].get("address")).intValue()), pending[i]);
+					pending[i] = null;
+				}
+			}
+			network.step();
+			for(int d = 0; d < network.getDelivered(); d++) {
+				RecordToken token = (RecordToken)network.getDeliveredPayload(d);
+				int target = network.getDeliveredTarget(d);
+				if(network.getDeliveredKind(d) == MeshNetwork.TO_MEMORY) {
+					toMemory.send(target, token);
+					if(((IntToken)token.get("type")).intValue() == Instruction.READ) {
+						outstanding[target][(outstandingHead[target] + outstandingCount[target]) % masters] = network.getDeliveredSource(d);
+						outstandingCount[target]++;
+					}
+				} else {
+					output.send(target, token);
+				}
+			}
+		} else {
+			for(int m = 0; m < memories; m++) {
+				if(fromMemory.hasToken(m)) {
+					RecordToken token = (RecordToken)fromMemory.get(m);
+					int master = outstanding[m][outstandingHead[m]];
+					outstandingHead[m] = (outstandingHead[m] + 1) % masters;
+					outstandingCount[m]--;
+					network.sendResponse(m, master, token);
+				}
+			}
+			for(int i = 0; i < masters; i++) {
+				if(input.hasToken(i)) {
+					RecordToken request = (RecordToken)input.get(i);
+					if(pending[i] == null && network.canSendRequest(i)) {
+						pending[i] = request;
+					}
+				}
+			}
+		}
+	}
+
+	private static int[] parseNodes(String list, int expected) {
+		if(list.trim().isEmpty()) {
+			return null;
+		}
+		String[] parts = list.split(",");
+		if(parts.length != expected) {
+			throw new IllegalArgumentException("Expected " + expected + " nodes, got " + list);
+		}
+		int[] nodes = new int[parts.length];
+		for(int i = 0; i < parts.length; i++) {
+			nodes[i] = Integer.parseInt(parts[i].trim());
+		}
+		return nodes;
+	}
+
+	private static void checkDistinct(int[] nodes, String what) {
+		for(int i = 0; i < nodes.length; i++) {
+			for(int j = i + 1; j < nodes.length; j++) {
+				if(nodes[i] == nodes[j]) {
+					throw new IllegalArgumentException("Two " + what + " are attached to node " + nodes[i]);
+				}
+			}
+		}
+	}
+
+	public void wrapup() throws IllegalActionException {
+		super.wrapup();
+		System.out.println(getName() + " " + network.getColumns() + "x" + network.getRows() + " mesh of " + masters + " masters and "
+				+ memories + " memories over " + network.getCycles() + " cycles");
+		System.out.print(network.report());
+	}
+
+	public void pruneDependencies() {
+		super.pruneDependencies();
+		removeDependency(input, output);
+		removeDependency(input, toMemory);
+	}
+
+}
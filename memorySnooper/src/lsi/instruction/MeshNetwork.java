@@ -0,0 +1,358 @@
+package lsi.instruction;
+
+/**
+ * A 2D mesh network-on-chip with XY routing, free of any Ptolemy dependency so it can be stepped directly.
+ *
+ * Nodes are numbered row by row, node n is at column n % columns and row n / columns. Masters and memories are
+ * attached to nodes. Every node has one output link towards each neighbour, each with a FIFO buffer of bufferDepth
+ * packets, and an injection queue where its master and memory hand packets to the network. A packet first travels
+ * along its row, then along its column (XY routing, which cannot deadlock), one hop per cycle. Each link forwards at
+ * most one packet per cycle, a packet waits while the next buffer is full, and each node ejects at most one packet per
+ * cycle to what is attached to it. Links are served in an order that rotates every cycle, so none is favoured.
+ *
+ * Packets are kept in primitive arrays recycled through a free list, a step does not allocate. Each packet carries an
+ * opaque payload, the token of the transaction when driven by MeshInterconnect.
+ *
+ * For every link the network counts the packets forwarded, the cycles they spent in its buffer and the highest
+ * occupancy, and for every delivered packet the hops and cycles from injection to delivery.
+ */
+public class MeshNetwork {
+
+	public static final int TO_MEMORY = 0;
+	public static final int TO_MASTER = 1;
+
+	private static final int EAST = 0, WEST = 1, NORTH = 2, SOUTH = 3, DIRECTIONS = 4;
+	private static final String[] DIRECTION_NAMES = {"E", "W", "N", "S"};
+
+	private int columns, rows, nodes;
+	private int bufferDepth;
+	private int[] masterNode, memoryNode;
+	private long cycle = 0;
+
+	// Links: node * DIRECTIONS + direction leaves node, nodes * DIRECTIONS + node is the injection queue of node
+	private int links;
+	private int[] neighbour; // node a link leads to, -1 if it leaves the mesh
+	private int[] capacity, offset, head, count;
+	private int[] slots; // ring buffers of packet ids, link l at [offset[l], offset[l] + capacity[l])
+
+	// Packets
+	private int[] destination, kind, target, source, hops;
+	private long[] injected, enqueued, moved;
+	private Object[] payload;
+	private int[] free;
+	private int freeCount;
+
+	// Packets delivered by the last step
+	private int[] delivered;
+	private int deliveredCount;
+	private boolean[] ejecting; // nodes that delivered a packet in this step
+
+	// Statistics
+	private long[] linkPackets, linkWait, linkMaxOccupancy;
+	private long[] deliveries = new long[2], latency = new long[2], maxLatency = new long[2], hopCount = new long[2];
+
+	/**
+	 * @param columns Nodes per row
+	 * @param rows Nodes per column
+	 * @param bufferDepth Packets each link buffer holds, also the requests an injection queue accepts
+	 * @param masterNode Node of each master
+	 * @param memoryNode Node of each memory
+	 * @throws IllegalArgumentException If a size is not positive or a node is outside the mesh
+	 */
+	public MeshNetwork(int columns, int rows, int bufferDepth, int[] masterNode, int[] memoryNode) {
+		if(columns <= 0 || rows <= 0 || bufferDepth <= 0) {
+			throw new IllegalArgumentException("Mesh size and buffer depth must be positive, got " + columns + "x" + rows + " and " + bufferDepth);
+		}
+		this.columns = columns;
+		this.rows = rows;
+		this.nodes = columns * rows;
+		this.bufferDepth = bufferDepth;
+		this.masterNode = checkNodes(masterNode, "master");
+		this.memoryNode = checkNodes(memoryNode, "memory");
+
+		links = nodes * DIRECTIONS + nodes;
+		neighbour = new int[links];
+		capacity = new int[links];
+		offset = new int[links];
+		head = new int[links];
+		count = new int[links];
+		int total = 0;
+		for(int l = 0; l < links; l++) {
+			if(l < nodes * DIRECTIONS) {
+				neighbour[l] = neighbour(l / DIRECTIONS, l % DIRECTIONS);
+				capacity[l] = (neighbour[l] == -1) ? 0 : bufferDepth;
+			} else {
+				neighbour[l] = l - nodes * DIRECTIONS; // the injection queue leads into its own node
+				capacity[l] = bufferDepth + masterNode.length; // room for the response to every master on top of the requests
+			}
+			offset[l] = total;
+			total += capacity[l];
+		}
+		slots = new int[total];
+
+		int packets = total + nodes; // every buffer full plus one packet being ejected at each node
+		destination = new int[packets];
+		kind = new int[packets];
+		target = new int[packets];
+		source = new int[packets];
+		hops = new int[packets];
+		injected = new long[packets];
+		enqueued = new long[packets];
+		moved = new long[packets];
+		payload = new Object[packets];
+		free = new int[packets];
+		for(int p = 0; p < packets; p++) {
+			free[p] = packets - 1 - p;
+		}
+		freeCount = packets;
+
+		delivered = new int[nodes];
+		ejecting = new boolean[nodes];
+		linkPackets = new long[links];
+		linkWait = new long[links];
+		linkMaxOccupancy = new long[links];
+	}
+
+	private int[] checkNodes(int[] attached, String what) {
+		for(int i = 0; i < attached.length; i++) {
+			if(attached[i] < 0 || attached[i] >= nodes) {
+				throw new IllegalArgumentException("Node " + attached[i] + " of " + what + " " + i + " is outside the " + columns + "x" + rows + " mesh");
+			}
+		}
+		return attached.clone();
+	}
+
+	private int neighbour(int node, int direction) {
+		int x = node % columns;
+		int y = node / columns;
+		switch(direction) {
+		case EAST: return (x + 1 < columns) ? node + 1 : -1;
+		case WEST: return (x > 0) ? node - 1 : -1;
+		case NORTH: return (y > 0) ? node - columns : -1;
+		default: return (y + 1 < rows) ? node + columns : -1;
+		}
+	}
+
+	/**
+	 * Returns true if the injection queue of the master's node can take one more request.
+	 */
+	public boolean canSendRequest(int master) {
+		return count[injectionQueue(masterNode[master])] < bufferDepth;
+	}
+
+	/**
+	 * Hands a request of the master to the network, to be delivered to the memory.
+	 * @throws IllegalStateException If the injection queue is full, see canSendRequest
+	 */
+	public void sendRequest(int master, int memory, Object token) {
+		if(!canSendRequest(master)) {
+			throw new IllegalStateException("Injection queue of master " + master + " is full");
+		}
+		inject(masterNode[master], memoryNode[memory], TO_MEMORY, memory, master, token);
+	}
+
+	/**
+	 * Hands a response of the memory to the network, to be delivered to the master.
+	 * The injection queue always has room for one response per master.
+	 */
+	public void sendResponse(int memory, int master, Object token) {
+		inject(memoryNode[memory], masterNode[master], TO_MASTER, master, memory, token);
+	}
+
+	private void inject(int from, int to, int packetKind, int packetTarget, int packetSource, Object token) {
+		int queue = injectionQueue(from);
+		if(count[queue] == capacity[queue] || freeCount == 0) {
+			throw new IllegalStateException("Injection queue of node " + from + " is full");
+		}
+		int p = free[--freeCount];
+		destination[p] = to;
+		kind[p] = packetKind;
+		target[p] = packetTarget;
+		source[p] = packetSource;
+		hops[p] = 0;
+		injected[p] = cycle;
+		moved[p] = cycle;
+		payload[p] = token;
+		push(queue, p);
+	}
+
+	/**
+	 * Advances the network by one cycle. The packets that reached their destination are then available through
+	 * getDelivered() and the getDelivered* methods, until the next step.
+	 */
+	public void step() {
+		for(int i = 0; i < deliveredCount; i++) {
+			payload[delivered[i]] = null;
+			free[freeCount++] = delivered[i];
+		}
+		deliveredCount = 0;
+		cycle++;
+		for(int n = 0; n < nodes; n++) {
+			ejecting[n] = false;
+		}
+		int start = (int)(cycle % links);
+		for(int k = 0; k < links; k++) {
+			int link = start + k;
+			if(link >= links) {
+				link -= links;
+			}
+			if(count[link] == 0) {
+				continue;
+			}
+			int p = slots[offset[link] + head[link]];
+			if(moved[p] == cycle) {
+				continue; // entered this buffer in this step
+			}
+			int node = neighbour[link];
+			if(node == destination[p]) {
+				if(ejecting[node]) {
+					continue;
+				}
+				ejecting[node] = true;
+				pop(link);
+				long time = cycle - injected[p];
+				deliveries[kind[p]]++;
+				latency[kind[p]] += time;
+				maxLatency[kind[p]] = Math.max(maxLatency[kind[p]], time);
+				hopCount[kind[p]] += hops[p];
+				delivered[deliveredCount++] = p;
+			} else {
+				int next = node * DIRECTIONS + route(node, destination[p]);
+				if(count[next] == capacity[next]) {
+					continue;
+				}
+				pop(link);
+				hops[p]++;
+				moved[p] = cycle;
+				push(next, p);
+			}
+		}
+	}
+
+	/*
+	 * XY routing: along the row first, then along the column.
+	 */
+	private int route(int node, int to) {
+		int x = node % columns;
+		int toX = to % columns;
+		if(toX > x) {
+			return EAST;
+		} else if(toX < x) {
+			return WEST;
+		}
+		return (to / columns < node / columns) ? NORTH : SOUTH;
+	}
+
+	private void push(int link, int p) {
+		slots[offset[link] + (head[link] + count[link]) % capacity[link]] = p;
+		count[link]++;
+		enqueued[p] = cycle;
+		linkMaxOccupancy[link] = Math.max(linkMaxOccupancy[link], count[link]);
+	}
+
+	private void pop(int link) {
+		int p = slots[offset[link] + head[link]];
+		head[link] = (head[link] + 1) % capacity[link];
+		count[link]--;
+		linkPackets[link]++;
+		linkWait[link] += cycle - enqueued[p];
+	}
+
+	private int injectionQueue(int node) {
+		return nodes * DIRECTIONS + node;
+	}
+
+	public int getDelivered() {
+		return deliveredCount;
+	}
+
+	/**
+	 * Returns TO_MEMORY or TO_MASTER for the i-th packet delivered by the last step.
+	 */
+	public int getDeliveredKind(int i) {
+		return kind[delivered[i]];
+	}
+
+	/**
+	 * Returns the memory or master the i-th packet delivered by the last step was sent to.
+	 */
+	public int getDeliveredTarget(int i) {
+		return target[delivered[i]];
+	}
+
+	/**
+	 * Returns the master or memory that sent the i-th packet delivered by the last step.
+	 */
+	public int getDeliveredSource(int i) {
+		return source[delivered[i]];
+	}
+
+	public Object getDeliveredPayload(int i) {
+		return payload[delivered[i]];
+	}
+
+	/**
+	 * Returns true if no packet is in the network.
+	 */
+	public boolean isEmpty() {
+		return freeCount + deliveredCount == free.length;
+	}
+
+	public long getCycles() {
+		return cycle;
+	}
+
+	public int getColumns() {
+		return columns;
+	}
+
+	public int getRows() {
+		return rows;
+	}
+
+	public long getDeliveries(int packetKind) {
+		return deliveries[packetKind];
+	}
+
+	/**
+	 * Returns the average cycles from injection to delivery of the packets of the given kind.
+	 */
+	public double getAverageLatency(int packetKind) {
+		return (deliveries[packetKind] == 0) ? 0 : (double)latency[packetKind] / deliveries[packetKind];
+	}
+
+	/**
+	 * Lists the delivered packets of each kind with their latency and hops, then every link that forwarded a packet
+	 * with its throughput (packets per cycle), the average cycles a packet spent in its buffer and its highest occupancy.
+	 */
+	public String report() {
+		StringBuilder report = new StringBuilder();
+		String[] kinds = {"requests", "responses"};
+		for(int k = 0; k < 2; k++) {
+			report.append(kinds[k]).append(": delivered=").append(deliveries[k])
+				.append(" avg-latency=").append(getAverageLatency(k))
+				.append(" max-latency=").append(maxLatency[k])
+				.append(" avg-hops=").append((deliveries[k] == 0) ? 0 : (double)hopCount[k] / deliveries[k]).append('\n');
+		}
+		for(int l = 0; l < links; l++) {
+			if(linkPackets[l] == 0) {
+				continue;
+			}
+			if(l < nodes * DIRECTIONS) {
+				report.append("link ").append(coordinates(l / DIRECTIONS)).append(DIRECTION_NAMES[l % DIRECTIONS]);
+			} else {
+				report.append("inject ").append(coordinates(l - nodes * DIRECTIONS));
+			}
+			report.append(": packets=").append(linkPackets[l])
+				.append(" throughput=").append((cycle == 0) ? 0 : (double)linkPackets[l] / cycle)
+				.append(" avg-latency=").append((double)linkWait[l] / linkPackets[l])
+				.append(" max-occupancy=").append(linkMaxOccupancy[l]).append('\n');
+		}
+		return report.toString();
+	}
+
+	private String coordinates(int node) {
+		return "(" + (node % columns) + "," + (node / columns) + ")";
+	}
+
+}
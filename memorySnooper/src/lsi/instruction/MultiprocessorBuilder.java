@@ -0,0 +1,199 @@
+package lsi.instruction;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import ptolemy.actor.TypedCompositeActor;
+import ptolemy.actor.lib.Clock;
+import ptolemy.data.expr.Parameter;
+import ptolemy.domains.de.kernel.DEDirector;
+import ptolemy.kernel.Entity;
+import ptolemy.kernel.util.IllegalActionException;
+import ptolemy.kernel.util.NameDuplicationException;
+import ptolemy.kernel.util.Workspace;
+
+/**
+ * Builds the platform of myModel.xml for any number of cores: a DE director, the clock, a SingleSharedMemoryBus,
+ * the MemoryController, for each core an InstructionProcessor and a Cache, and the CoherentCaches of all the cores.
+ *
+ * Core i is connected to channel i of the bus input and output multiports and its cache listens to the snoop port of
+ * the bus with master i. The caches report the hit rates of each core on its own, CoherentCaches, on the same snoop
+ * port, reports the coherent ones. Cores are given the initial PCs in turn, so the four PCs of myModel.xml can drive any
+ * number of cores. Parameters of the bus, the memory controller and the caches can be set by name before building,
+ * with the same expressions as in the model file.
+ *
+ * Usage: java lsi.instruction.MultiprocessorBuilder memoryFile cores cycles [initialPC...]
+ */
+public class MultiprocessorBuilder {
+
+	// Clock period of myModel.xml, one bus cycle
+	public static final double CLOCK_PERIOD = 0.00000001;
+
+	private String memoryFile;
+	private int cores;
+	private int[] initialPCs;
+	private long cycles = 40000;
+	private Map<String, String> busParameters = new LinkedHashMap<String, String>();
+	private Map<String, String> memoryParameters = new LinkedHashMap<String, String>();
+	private Map<String, String> cacheParameters = new LinkedHashMap<String, String>();
+	private Map<String, String> coherentCachesParameters = new LinkedHashMap<String, String>();
+
+	// Actors of the last model built
+	private SingleSharedMemoryBus bus;
+	private MemoryController memoryController;
+	private InstructionProcessor[] processors;
+	private Cache[] caches;
+	private CoherentCaches coherentCaches;
+
+	/**
+	 * @param memoryFile Memory image loaded by the memory controller, text or binary
+	 * @param cores Number of InstructionProcessor and Cache pairs
+	 * @param initialPCs PCs the cores start at, in turn, the ones of myModel.xml if null or empty
+	 */
+	public MultiprocessorBuilder(String memoryFile, int cores, int[] initialPCs) {
+		if(cores <= 0) {
+			throw new IllegalArgumentException("Number of cores must be positive, got " + cores);
+		}
+		this.memoryFile = memoryFile;
+		this.cores = cores;
+		this.initialPCs = (initialPCs == null || initialPCs.length == 0) ? HeadlessSimulator.MODEL_INITIAL_PCS : initialPCs;
+	}
+
+	/**
+	 * Sets the number of clock cycles the model runs for.
+	 */
+	public void setCycles(long cycles) {
+		this.cycles = cycles;
+	}
+
+	public void setBusParameter(String name, String expression) {
+		busParameters.put(name, expression);
+	}
+
+	public void setMemoryParameter(String name, String expression) {
+		memoryParameters.put(name, expression);
+	}
+
+	/**
+	 * Sets a parameter of every cache.
+	 */
+	public void setCacheParameter(String name, String expression) {
+		cacheParameters.put(name, expression);
+	}
+
+	/**
+	 * Sets a parameter of the CoherentCaches, its processors parameter is set to the number of cores.
+	 */
+	public void setCoherentCachesParameter(String name, String expression) {
+		coherentCachesParameters.put(name, expression);
+	}
+
+	/**
+	 * Builds a new top level model, ready to be given a Manager.
+	 * @throws IllegalActionException If a parameter set by name does not exist or the actors cannot be connected
+	 */
+	public TypedCompositeActor build() throws IllegalActionException, NameDuplicationException {
+		TypedCompositeActor model = new TypedCompositeActor(new Workspace());
+		model.setName("multiprocessor" + cores);
+
+		DEDirector director = new DEDirector(model, "DE Director");
+		director.stopTime.setExpression(Double.toString(cycles * CLOCK_PERIOD));
+
+		Clock clock = new Clock(model, "Clock");
+		clock.period.setExpression(Double.toString(CLOCK_PERIOD));
+		clock.offsets.setExpression("{0.0}");
+		clock.values.setExpression("{1}");
+
+		bus = new SingleSharedMemoryBus(model, "Bus");
+		setParameters(bus, busParameters);
+		memoryController = new MemoryController(model, "MemoryController");
+		memoryController.memoryFile.setExpression(memoryFile);
+		setParameters(memoryController, memoryParameters);
+
+		model.connect(clock.output, bus.clk, "clock");
+		memoryController.clk.link(model.getRelation("clock"));
+		model.connect(bus.toMemory, memoryController.input);
+		model.connect(memoryController.output, bus.fromMemory);
+
+		processors = new InstructionProcessor[cores];
+		caches = new Cache[cores];
+		for(int i = 0; i < cores; i++) {
+			processors[i] = new InstructionProcessor(model, "InstructionProcessor" + i);
+			processors[i].initPC.setExpression(Integer.toString(initialPCs[i % initialPCs.length]));
+			processors[i].clk.link(model.getRelation("clock"));
+			model.connect(processors[i].output, bus.input); // links in order, so the PE is on channel i
+			model.connect(bus.output, processors[i].input);
+
+			caches[i] = new Cache(model, "Cache" + i);
+			caches[i].master.setExpression(Integer.toString(i));
+			setParameters(caches[i], cacheParameters);
+			if(i == 0) {
+				model.connect(bus.snoop, caches[i].snoopInput, "snoop");
+			} else {
+				caches[i].snoopInput.link(model.getRelation("snoop"));
+			}
+		}
+
+		coherentCaches = new CoherentCaches(model, "CoherentCaches");
+		coherentCaches.processors.setExpression(Integer.toString(cores));
+		setParameters(coherentCaches, coherentCachesParameters);
+		coherentCaches.snoopInput.link(model.getRelation("snoop"));
+		return model;
+	}
+
+	public int getCores() {
+		return cores;
+	}
+
+	public long getCycles() {
+		return cycles;
+	}
+
+	public SingleSharedMemoryBus getBus() {
+		return bus;
+	}
+
+	public MemoryController getMemoryController() {
+		return memoryController;
+	}
+
+	public InstructionProcessor getProcessor(int core) {
+		return processors[core];
+	}
+
+	public Cache getCache(int core) {
+		return caches[core];
+	}
+
+	public CoherentCaches getCoherentCaches() {
+		return coherentCaches;
+	}
+
+	private static void setParameters(Entity actor, Map<String, String> parameters) throws IllegalActionException {
+		for(Map.Entry<String, String> parameter : parameters.entrySet()) {
+			Parameter p = (Parameter)actor.getAttribute(parameter.getKey());
+			if(p == null) {
+				throw new IllegalActionException(actor, "No parameter named " + parameter.getKey());
+			}
+			p.setExpression(parameter.getValue());
+		}
+	}
+
+	/**
+	 * Prints the MoML of the model, which Vergil can open.
+	 */
+	public static void main(String[] args) throws Exception {
+		if(args.length < 3) {
+			System.err.println("Usage: java lsi.instruction.MultiprocessorBuilder memoryFile cores cycles [initialPC...]");
+			System.exit(1);
+		}
+		int[] initialPCs = new int[args.length - 3];
+		for(int i = 0; i < initialPCs.length; i++) {
+			initialPCs[i] = Integer.parseInt(args[i + 3]);
+		}
+		MultiprocessorBuilder builder = new MultiprocessorBuilder(args[0], Integer.parseInt(args[1]), initialPCs);
+		builder.setCycles(Long.parseLong(args[2]));
+		System.out.println(builder.build().exportMoML());
+	}
+
+}
@@ -0,0 +1,28 @@
+package lsi.instruction;
+
+/**
+ * Tagged next-line prefetching: a miss, or the first use of a prefetched line, fetches the degree lines starting
+ * distance lines after it. Suits the sequential instruction fetches of the PEs.
+ */
+public class NextLinePrefetcher extends Prefetcher {
+
+	public NextLinePrefetcher(int degree, int distance, int lines) {
+		super(degree, distance, lines);
+	}
+
+	public int access(int line, int key, boolean trigger, int[] out) {
+		if(!trigger) {
+			return 0;
+		}
+		int n = 0;
+		for(int k = 0; k < degree; k++) {
+			int next = line + distance + k;
+			if(next >= lines) {
+				break;
+			}
+			out[n++] = next;
+		}
+		return n;
+	}
+
+}
@@ -0,0 +1,209 @@
+package lsi.instruction;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.InvalidAttributeValueException;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+/**
+ * A fixed set of named counters of one component of the model, readable live over JMX and dumped as CSV.
+ *
+ * Counters are numbered in the order of the names given to the constructor. Only the simulation thread updates
+ * them, JMX clients read them from their own threads, so values are kept in an AtomicLongArray and updated with
+ * lazySet, which is as cheap as a plain store. Ratios of two counters, such as CPI, are computed when read.
+ *
+ * Registered components appear as lsi.instruction:type=[kind],name=[component] in jconsole or any JMX client.
+ */
+public class PerformanceCounters implements DynamicMBean {
+
+	private final String component;
+	private final String[] names;
+	private final AtomicLongArray values;
+	private String[] ratioNames = new String[0];
+	private int[] numerators = new int[0];
+	private int[] denominators = new int[0];
+	private ObjectName objectName; // null when not registered
+
+	/**
+	 * @param component Name of the component, e.g. the full name of the actor
+	 * @param names Name of each counter
+	 */
+	public PerformanceCounters(String component, String[] names) {
+		this.component = component;
+		this.names = names.clone();
+		this.values = new AtomicLongArray(names.length);
+	}
+
+	public void increment(int counter) {
+		values.lazySet(counter, values.get(counter) + 1);
+	}
+
+	public void add(int counter, long amount) {
+		values.lazySet(counter, values.get(counter) + amount);
+	}
+
+	public long get(int counter) {
+		return values.get(counter);
+	}
+
+	/**
+	 * Adds a value computed as counter numerator / counter denominator, 0 while the denominator is 0.
+	 */
+	public void addRatio(String name, int numerator, int denominator) {
+		int n = ratioNames.length;
+		ratioNames = Arrays.copyOf(ratioNames, n + 1);
+		numerators = Arrays.copyOf(numerators, n + 1);
+		denominators = Arrays.copyOf(denominators, n + 1);
+		ratioNames[n] = name;
+		numerators[n] = numerator;
+		denominators[n] = denominator;
+	}
+
+	public double getRatio(int ratio) {
+		long denominator = values.get(denominators[ratio]);
+		return denominator == 0 ? 0 : (double)values.get(numerators[ratio]) / denominator;
+	}
+
+	public void reset() {
+		for(int i = 0; i < names.length; i++) {
+			values.set(i, 0);
+		}
+	}
+
+	/**
+	 * Publishes the counters on the platform MBean server, replacing a previous registration of the same component.
+	 * Failing to register only disables live monitoring, so it is reported and otherwise ignored.
+	 */
+	public void register(String kind) {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName("lsi.instruction:type=" + kind + ",name=" + ObjectName.quote(component));
+			if(server.isRegistered(name)) {
+				server.unregisterMBean(name);
+			}
+			server.registerMBean(this, name);
+			objectName = name;
+		} catch(JMException e) {
+			System.err.println("Could not register counters of " + component + ": " + e);
+		}
+	}
+
+	public void unregister() {
+		if(objectName == null) {
+			return;
+		}
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+		} catch(JMException e) {
+			// already gone
+		}
+		objectName = null;
+	}
+
+	/**
+	 * Appends one component,counter,value line per counter and ratio to the file, writing the header if the file is new.
+	 */
+	public void writeCsv(String file) throws IOException {
+		boolean header = new File(file).length() == 0;
+		PrintWriter out = new PrintWriter(new FileWriter(file, true));
+		try {
+			if(header) {
+				out.println("component,counter,value");
+			}
+			for(int i = 0; i < names.length; i++) {
+				out.println(component + "," + names[i] + "," + values.get(i));
+			}
+			for(int r = 0; r < ratioNames.length; r++) {
+				out.println(component + "," + ratioNames[r] + "," + getRatio(r));
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	public String toString() {
+		StringBuilder sb = new StringBuilder(component).append(" {");
+		for(int i = 0; i < names.length; i++) {
+			sb.append(i == 0 ? "" : ", ").append(names[i]).append('=').append(values.get(i));
+		}
+		for(int r = 0; r < ratioNames.length; r++) {
+			sb.append(", ").append(ratioNames[r]).append('=').append(getRatio(r));
+		}
+		return sb.append('}').toString();
+	}
+
+	// DynamicMBean, every counter is a read-only long attribute and every ratio a read-only double
+
+	public Object getAttribute(String attribute) throws AttributeNotFoundException {
+		for(int i = 0; i < names.length; i++) {
+			if(names[i].equals(attribute)) {
+				return values.get(i);
+			}
+		}
+		for(int r = 0; r < ratioNames.length; r++) {
+			if(ratioNames[r].equals(attribute)) {
+				return getRatio(r);
+			}
+		}
+		throw new AttributeNotFoundException(attribute);
+	}
+
+	public AttributeList getAttributes(String[] attributes) {
+		AttributeList list = new AttributeList();
+		for(String attribute : attributes) {
+			try {
+				list.add(new Attribute(attribute, getAttribute(attribute)));
+			} catch(AttributeNotFoundException e) {
+				// left out, as the interface specifies
+			}
+		}
+		return list;
+	}
+
+	public void setAttribute(Attribute attribute) throws AttributeNotFoundException, InvalidAttributeValueException {
+		throw new AttributeNotFoundException(attribute.getName() + " is read-only");
+	}
+
+	public AttributeList setAttributes(AttributeList attributes) {
+		return new AttributeList();
+	}
+
+	public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+		if(actionName.equals("reset")) {
+			reset();
+			return null;
+		}
+		throw new ReflectionException(new NoSuchMethodException(actionName));
+	}
+
+	public MBeanInfo getMBeanInfo() {
+		MBeanAttributeInfo[] attributes = new MBeanAttributeInfo[names.length + ratioNames.length];
+		for(int i = 0; i < names.length; i++) {
+			attributes[i] = new MBeanAttributeInfo(names[i], "long", names[i], true, false, false);
+		}
+		for(int r = 0; r < ratioNames.length; r++) {
+			attributes[names.length + r] = new MBeanAttributeInfo(ratioNames[r], "double", ratioNames[r], true, false, false);
+		}
+		MBeanOperationInfo[] operations = {
+			new MBeanOperationInfo("reset", "Sets every counter to 0", null, "void", MBeanOperationInfo.ACTION)
+		};
+		return new MBeanInfo(getClass().getName(), "Performance counters of " + component, attributes, null, operations, null);
+	}
+
+}
@@ -1,61 +1,241 @@
 package lsi.instruction;
 
-import java.util.ArrayList;
-import java.util.List;
+/**
+ * The store holding the memory lines currently loaded in a cache.
+ *
+ * A line is lineSize consecutive words, address a belongs to line (a / lineSize) and a miss loads the whole line.
+ * Entries are split in sets of ways entries each, a line can only be placed in set (line % sets).
+ * With ways=1 the store is direct-mapped, with ways=size it is fully associative.
+ * A tag index maps each loaded line to its entry so a hit check takes constant time regardless of the size.
+ * Empty ways are filled first, once a set is full the replacement policy picks the way to overwrite.
+ * Lines can also be invalidated, which frees their way for the next fill of the set.
+ */
+public class PhysicalMemory{
 
-public class PhysicalMemory{ 
-	
-	private int size; 
-	private int[] addressesLoaded;
-	private boolean[] addressContainsData;
-	private int memoryIndex = 0;
-	private List<Integer> hitted = new ArrayList<Integer>();
+	private int size;
+	private int ways;
+	private int sets;
+	private int lineSize;
+	private int[] linesLoaded; // Entries of set s are at [s*ways, (s+1)*ways), -1 if empty
+	private boolean[] lineContainsData;
+	private int[] freeWays; // Stack of the empty ways of each set, stored at [s*ways, s*ways + freeCount[s])
+	private int[] freeCount;
+	private int lastEvictedAddress = -1; // First address of the line overwritten by the last load, -1 if none
+	private boolean lastEvictedData;
+	private ReplacementPolicy policy;
+	private TagIndex tags;
+	private AddressProfiler profiler; // null when not profiling
 
+	/**
+	 * Creates a fully associative store of one word lines with FIFO replacement.
+	 * @param size Number of entries
+	 */
 	public PhysicalMemory(int size) {
+		this(size, size);
+	}
+
+	/**
+	 * Creates a store of one word lines with FIFO replacement.
+	 * @param size Number of entries
+	 * @param ways Number of entries per set, must divide size
+	 */
+	public PhysicalMemory(int size, int ways) {
+		this(size, ways, 1, null);
+	}
+
+	/**
+	 * @param size Number of entries, each holding one line
+	 * @param ways Number of entries per set, must divide size
+	 * @param lineSize Number of words per line
+	 * @param policy Replacement policy built for size/ways sets of ways entries, FIFO if null
+	 */
+	public PhysicalMemory(int size, int ways, int lineSize, ReplacementPolicy policy) {
+		if(size <= 0 || ways <= 0 || size % ways != 0) {
+			throw new IllegalArgumentException("Cache size " + size + " is not a multiple of associativity " + ways);
+		}
+		if(lineSize <= 0) {
+			throw new IllegalArgumentException("Line size must be positive, got " + lineSize);
+		}
 		this.size = size;
-		addressesLoaded = new int[size];
+		this.ways = ways;
+		this.sets = size / ways;
+		this.lineSize = lineSize;
+		linesLoaded = new int[size];
 		for(int i = 0; i<size; i++) {
-			addressesLoaded[i] = -1;
+			linesLoaded[i] = -1;
 		}
-		addressContainsData = new boolean[size]; // Initialized with false by default
-		
+		lineContainsData = new boolean[size]; // Initialized with false by default
+		freeWays = new int[size];
+		freeCount = new int[sets];
+		for(int set = 0; set < sets; set++) {
+			for(int way = 0; way < ways; way++) {
+				freeWays[set * ways + way] = ways - 1 - way; // way 0 on top, so empty sets fill in order
+			}
+			freeCount[set] = ways;
+		}
+		tags = new TagIndex(size);
+		this.policy = (policy != null) ? policy : new FifoPolicy(sets, ways);
 	}
 
-	public boolean hasAddressLoaded(int address) {
-		if(address == 0) {
-			System.out.println("igugik");
+	/**
+	 * Builds a store from the parameters a cache is configured with.
+	 * @param words Capacity in words, a multiple of lineSize
+	 * @param associativity Lines per set, 0 for fully associative
+	 * @param lineSize Words per line
+	 * @param replacementPolicy Name accepted by ReplacementPolicy.create
+	 * @param seed Seed of the RANDOM policy
+	 * @throws IllegalArgumentException If the geometry or the policy name are not valid
+	 */
+	public static PhysicalMemory create(int words, int associativity, int lineSize, String replacementPolicy, long seed) {
+		if(lineSize <= 0 || words % lineSize != 0) {
+			throw new IllegalArgumentException("size (" + words + ") must be a multiple of lineSize (" + lineSize + ")");
+		}
+		int entries = words / lineSize;
+		int ways = (associativity == 0) ? entries : associativity;
+		if(entries <= 0 || ways <= 0 || entries % ways != 0) {
+			throw new IllegalArgumentException("number of lines (" + entries + ") must be a positive multiple of associativity (" + ways + ")");
 		}
-		for(int loadedAddress: addressesLoaded) {
-			if(address == loadedAddress) {
-				hitted.add(address);
-				return true;
+		return new PhysicalMemory(entries, ways, lineSize, ReplacementPolicy.create(replacementPolicy, entries / ways, ways, seed));
+	}
+
+	/**
+	 * Returns true if the line holding the address is loaded, and records the access with the replacement policy.
+	 */
+	public boolean hasAddressLoaded(int address) {
+		int entry = tags.get(getLine(address));
+		if(entry != TagIndex.NOT_FOUND) {
+			policy.hit(entry / ways, entry % ways);
+			if(profiler != null) {
+				profiler.hit(address);
 			}
+			return true;
+		}
+		if(profiler != null) {
+			profiler.miss(address);
 		}
 		return false;
 	}
+
+	/**
+	 * Returns true if the line holding the address is loaded, without counting it as an access.
+	 */
+	public boolean contains(int address) {
+		return tags.get(getLine(address)) != TagIndex.NOT_FOUND;
+	}
+
 	/**
-	 * Loads the memory address into memory.
-	 * Returns true if cached data had to be overwritten, false otherwise.
+	 * Loads the line holding the memory address into memory.
+	 * Returns true if a cached line containing data had to be overwritten, false otherwise.
 	 * @param address The address to load
 	 * @param isData True if loading data
 	 * @return
 	 */
 	public boolean load(int address, boolean isData) {
-		boolean dataWasOverwritten = false;
-		if(addressContainsData[memoryIndex]) {
-			dataWasOverwritten  = true;
+		int line = getLine(address);
+		int entry = tags.get(line);
+		lastEvictedAddress = -1;
+		lastEvictedData = false;
+		if(entry != TagIndex.NOT_FOUND) {
+			// Already cached, nothing is overwritten
+			policy.hit(entry / ways, entry % ways);
+			if(isData) {
+				lineContainsData[entry] = true;
+			}
+			return false;
 		}
-		if(isData) {
-			addressContainsData[memoryIndex] = true;
+		int set = line % sets;
+		int way = (freeCount[set] > 0) ? freeWays[set * ways + --freeCount[set]] : policy.victim(set, line);
+		entry = set * ways + way;
+		boolean dataWasOverwritten = lineContainsData[entry];
+		if(linesLoaded[entry] != -1) {
+			tags.remove(linesLoaded[entry]);
+			lastEvictedAddress = linesLoaded[entry] * lineSize;
+			lastEvictedData = dataWasOverwritten;
 		}
-		addressesLoaded[memoryIndex] = address;
-		updateIndex();
+		lineContainsData[entry] = isData;
+		linesLoaded[entry] = line;
+		tags.put(line, entry);
+		policy.filled(set, way, line);
 		return dataWasOverwritten;
 	}
 
-	private void updateIndex() {
-		memoryIndex += 1;
-		memoryIndex %= this.size;
+	/**
+	 * Removes the line holding the address from the store, if loaded.
+	 * Returns true if the removed line contained data.
+	 */
+	public boolean invalidate(int address) {
+		int entry = tags.get(getLine(address));
+		if(entry == TagIndex.NOT_FOUND) {
+			return false;
+		}
+		int set = entry / ways;
+		int way = entry % ways;
+		boolean containedData = lineContainsData[entry];
+		tags.remove(linesLoaded[entry]);
+		linesLoaded[entry] = -1;
+		lineContainsData[entry] = false;
+		freeWays[set * ways + freeCount[set]++] = way;
+		policy.invalidated(set, way);
+		return containedData;
+	}
+
+	/**
+	 * Flags the line holding the address as containing data, if loaded, without counting it as an access.
+	 */
+	public void markData(int address) {
+		int entry = tags.get(getLine(address));
+		if(entry != TagIndex.NOT_FOUND) {
+			lineContainsData[entry] = true;
+		}
+	}
+
+	/**
+	 * Returns true if the line holding the address is loaded and contains data.
+	 */
+	public boolean containsData(int address) {
+		int entry = tags.get(getLine(address));
+		return entry != TagIndex.NOT_FOUND && lineContainsData[entry];
+	}
+
+	/**
+	 * Returns the first address of the line the last call to load() overwrote, or -1 if it filled an empty way or hit.
+	 */
+	public int getLastEvictedAddress() {
+		return lastEvictedAddress;
+	}
+
+	/**
+	 * Returns true if the line the last call to load() overwrote contained data.
+	 */
+	public boolean wasLastEvictedData() {
+		return lastEvictedData;
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	public int getWays() {
+		return ways;
+	}
+
+	public int getSets() {
+		return sets;
+	}
+
+	public int getLineSize() {
+		return lineSize;
+	}
+
+	/**
+	 * Records every hasAddressLoaded() outcome in the given profiler, null stops profiling.
+	 */
+	public void setProfiler(AddressProfiler profiler) {
+		this.profiler = profiler;
+	}
+
+	private int getLine(int address) {
+		return (address & Integer.MAX_VALUE) / lineSize;
 	}
 
 }
@@ -0,0 +1,82 @@
+package lsi.instruction;
+
+/**
+ * Decides which lines a cache fetches from main memory ahead of demand.
+ *
+ * CacheSimulator reports every demand access with the line it touches, and the prefetcher answers with the lines
+ * to fetch. Prefetchers that fill the cache directly have their lines loaded into it, the others keep the lines in
+ * their own buffers and hand them over through take() when a demand access misses in the cache.
+ *
+ * degree is the number of lines fetched per prediction and distance how many lines ahead of the access they start.
+ */
+public abstract class Prefetcher {
+
+	// Names accepted by create(), also the choices of the Cache prefetcher parameter
+	public static final String NONE = "NONE";
+	public static final String NEXT_LINE = "NEXT_LINE";
+	public static final String STRIDE = "STRIDE";
+	public static final String STREAM = "STREAM";
+
+	protected final int degree;
+	protected final int distance;
+	protected final int lines; // lines of the address space, predictions past the end are dropped
+
+	protected Prefetcher(int degree, int distance, int lines) {
+		if(degree <= 0 || distance <= 0) {
+			throw new IllegalArgumentException("Prefetch degree and distance must be positive, got " + degree + " and " + distance);
+		}
+		this.degree = degree;
+		this.distance = distance;
+		this.lines = lines;
+	}
+
+	/**
+	 * Called after every demand access.
+	 * @param line The line accessed
+	 * @param key The address of the access before it: for a data access, the PC of the instruction that made it
+	 * @param trigger True on a miss or on the first use of a prefetched line
+	 * @param out Receives the lines to fetch, at least maxLines() long
+	 * @return The number of lines written to out
+	 */
+	public abstract int access(int line, int key, boolean trigger, int[] out);
+
+	/**
+	 * Returns true if the prefetched lines are loaded into the cache, false if the prefetcher buffers them itself.
+	 */
+	public boolean fillsCache() {
+		return true;
+	}
+
+	/**
+	 * Hands a buffered line over to the cache on a miss, returns false if the line is not buffered.
+	 */
+	public boolean take(int line) {
+		return false;
+	}
+
+	/**
+	 * The most lines a single access() can return.
+	 */
+	public int maxLines() {
+		return degree;
+	}
+
+	/**
+	 * Builds the prefetcher with the given name, null for NONE.
+	 * @param tableSize Entries of the STRIDE reference prediction table, buffers of STREAM
+	 * @param lines Lines of the address space
+	 */
+	public static Prefetcher create(String name, int degree, int distance, int tableSize, int lines) {
+		if(NONE.equalsIgnoreCase(name)) {
+			return null;
+		} else if(NEXT_LINE.equalsIgnoreCase(name)) {
+			return new NextLinePrefetcher(degree, distance, lines);
+		} else if(STRIDE.equalsIgnoreCase(name)) {
+			return new StridePrefetcher(degree, distance, lines, tableSize);
+		} else if(STREAM.equalsIgnoreCase(name)) {
+			return new StreamBufferPrefetcher(degree, distance, lines, tableSize);
+		}
+		throw new IllegalArgumentException("Unknown prefetcher: " + name);
+	}
+
+}
@@ -0,0 +1,27 @@
+package lsi.instruction;
+
+import java.util.Random;
+
+/**
+ * Random replacement. The generator is seeded so that two runs with the same seed evict the same ways.
+ */
+public class RandomPolicy extends ReplacementPolicy {
+
+	private Random random;
+
+	public RandomPolicy(int sets, int ways, long seed) {
+		super(sets, ways);
+		random = new Random(seed);
+	}
+
+	public void hit(int set, int way) {
+	}
+
+	public int victim(int set, int line) {
+		return random.nextInt(ways);
+	}
+
+	public void filled(int set, int way, int line) {
+	}
+
+}
@@ -0,0 +1,71 @@
+package lsi.instruction;
+
+/**
+ * Decides which way of a set is overwritten when a cache set is full.
+ *
+ * PhysicalMemory notifies the policy of every hit and every fill, and asks it for a victim only when the set
+ * the missing line maps to has no empty way left. Ways are numbered 0..ways-1 within each set.
+ */
+public abstract class ReplacementPolicy {
+
+	// Names accepted by create(), also the choices of the Cache replacementPolicy parameter
+	public static final String FIFO = "FIFO";
+	public static final String LRU = "LRU";
+	public static final String TREE_PLRU = "PLRU";
+	public static final String RANDOM = "RANDOM";
+	public static final String LFU = "LFU";
+	public static final String ARC = "ARC";
+
+	protected final int sets;
+	protected final int ways;
+
+	protected ReplacementPolicy(int sets, int ways) {
+		this.sets = sets;
+		this.ways = ways;
+	}
+
+	/**
+	 * Called when an access finds its line in the given way.
+	 */
+	public abstract void hit(int set, int way);
+
+	/**
+	 * Returns the way of a full set that will be overwritten to make room for a line.
+	 */
+	public abstract int victim(int set, int line);
+
+	/**
+	 * Called once a line has been placed in the given way.
+	 */
+	public abstract void filled(int set, int way, int line);
+
+	/**
+	 * Called when the line in the given way is invalidated. The way stays empty until the next fill of the
+	 * set, and victim() is never asked while a set has empty ways, so most policies can ignore it.
+	 */
+	public void invalidated(int set, int way) {
+	}
+
+	/**
+	 * Builds the policy with the given name.
+	 * @param name One of FIFO, LRU, PLRU, RANDOM, LFU, ARC
+	 * @param seed Only used by RANDOM, so that runs are reproducible
+	 */
+	public static ReplacementPolicy create(String name, int sets, int ways, long seed) {
+		if(FIFO.equalsIgnoreCase(name)) {
+			return new FifoPolicy(sets, ways);
+		} else if(LRU.equalsIgnoreCase(name)) {
+			return new LruPolicy(sets, ways);
+		} else if(TREE_PLRU.equalsIgnoreCase(name)) {
+			return new TreePlruPolicy(sets, ways);
+		} else if(RANDOM.equalsIgnoreCase(name)) {
+			return new RandomPolicy(sets, ways, seed);
+		} else if(LFU.equalsIgnoreCase(name)) {
+			return new LfuPolicy(sets, ways);
+		} else if(ARC.equalsIgnoreCase(name)) {
+			return new ArcPolicy(sets, ways);
+		}
+		throw new IllegalArgumentException("Unknown replacement policy: " + name);
+	}
+
+}
@@ -0,0 +1,69 @@
+package lsi.instruction;
+
+import java.util.Arrays;
+
+/**
+ * Deterministic checks of the eviction order of the TREE_PLRU, LFU and ARC replacement policies, on a single fully
+ * associative set of four one word lines, driven through PhysicalMemory. Each scenario loads and hits a few addresses
+ * and compares the addresses evicted with the ones worked out by hand from the policy.
+ *
+ * Usage: java lsi.instruction.ReplacementPolicyCheck
+ * prints one line per failed check and exits with status 1 if any failed.
+ */
+public class ReplacementPolicyCheck {
+
+	private static final int WAYS = 4;
+
+	private static int failures = 0;
+
+	public static void main(String[] args) {
+		// Ways fill 0..3 in order. With every way used once in order, the tree points at way 0. Once way 0 is reused
+		// the root points right, where way 3 was used after way 2: PLRU evicts 2 where LRU would evict 1.
+		expect("PLRU order", ReplacementPolicy.TREE_PLRU, "L0 L1 L2 L3 L4 L5 H1 L6", 0, 2, 3);
+		// A hit on way 0 sends the root right, and way 2 is the older of the right half.
+		expect("PLRU hit protects its half", ReplacementPolicy.TREE_PLRU, "L10 L11 L12 L13 H10 L14", 12);
+
+		// Counts after the hits: 0:3 1:2 2:1 3:2. The newly filled 4 has the lowest count, then 1 is the least
+		// recently used of the ways used twice.
+		expect("LFU order", ReplacementPolicy.LFU, "L0 L1 L2 L3 H0 H0 H1 H3 L4 L5 H5 L6", 2, 4, 1);
+
+		// 0 and 1 move to T2, so 2 and then 3 leave T1 for the ghost list B1. Reloading 2 hits B1: p grows to 1 and
+		// 2 comes back into T2, evicting 4 from T1. With T1 down to p, 6 evicts the LRU of T2, 0, which goes to B2.
+		// Reloading 0 hits B2: p drops to 0 and T1 gives up 5.
+		expect("ARC order", ReplacementPolicy.ARC, "L0 L1 L2 L3 H0 H1 L4 L5 L2 L6 L0", 2, 3, 4, 0, 5);
+		// Scanning new addresses once only ever evicts from T1, the lines used twice stay.
+		expect("ARC resists scans", ReplacementPolicy.ARC, "L0 L1 H0 H1 L2 L3 L4 L5 L6 L7", 2, 3, 4, 5);
+
+		System.out.println(failures == 0 ? "all replacement policy checks passed" : failures + " replacement policy checks failed");
+		System.exit(failures == 0 ? 0 : 1);
+	}
+
+	/*
+	 * Runs the steps, Ln loads address n and Hn hits it, and compares the evicted addresses with the expected ones.
+	 */
+	private static void expect(String check, String policy, String steps, int... evictions) {
+		PhysicalMemory memory = new PhysicalMemory(WAYS, WAYS, 1, ReplacementPolicy.create(policy, 1, WAYS, 1));
+		int[] evicted = new int[0];
+		for(String step : steps.split(" ")) {
+			int address = Integer.parseInt(step.substring(1));
+			if(step.charAt(0) == 'H') {
+				if(!memory.hasAddressLoaded(address)) {
+					System.out.println("FAIL " + check + ": " + address + " not loaded at " + step);
+					failures++;
+					return;
+				}
+			} else {
+				memory.load(address, false);
+				if(memory.getLastEvictedAddress() != -1) {
+					evicted = Arrays.copyOf(evicted, evicted.length + 1);
+					evicted[evicted.length - 1] = memory.getLastEvictedAddress();
+				}
+			}
+		}
+		if(!Arrays.equals(evictions, evicted)) {
+			System.out.println("FAIL " + check + ": expected evictions " + Arrays.toString(evictions) + ", got " + Arrays.toString(evicted));
+			failures++;
+		}
+	}
+
+}
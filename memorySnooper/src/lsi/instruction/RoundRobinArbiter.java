@@ -0,0 +1,27 @@
+package lsi.instruction;
+
+/**
+ * Round robin: the search for a requesting master starts right after the last master granted, so every master
+ * waits for at most one transaction of each other master.
+ */
+public class RoundRobinArbiter extends Arbiter {
+
+	private int last;
+
+	public RoundRobinArbiter(int masters) {
+		super(masters);
+		last = masters - 1; // master 0 is looked at first
+	}
+
+	public int select(int[] requests, long cycle) {
+		for(int k = 1; k <= masters; k++) {
+			int i = (last + k) % masters;
+			if(requests[i] == 1) {
+				last = i;
+				return i;
+			}
+		}
+		return -1;
+	}
+
+}
@@ -0,0 +1,354 @@
+package lsi.instruction;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Estimates the statistics of a cache configuration from a sample of an address stream, with confidence intervals.
+ *
+ * Each PE of the trace has its own cache, as in CacheSweep. Two kinds of sampling can be combined:
+ * - set sampling simulates one set in setRatio. Sets do not interact, so each sampled set is simulated alone by a one
+ *   set CacheSimulator and the accesses to the other sets are skipped.
+ * - time sampling splits the stream in periods of period accesses. In each period the first warmup accesses only
+ *   refill the caches, the next measure accesses are counted and the rest are skipped, leaving the caches stale
+ *   until the next warmup.
+ * The sampling units are the measurement windows when time sampling, the sampled sets of every PE otherwise. Every
+ * statistic is estimated as a rate per access by the ratio of its total to the accesses over the units, and its 95%
+ * confidence interval comes from the spread of the units around that ratio.
+ *
+ * Set sampling needs a cache of more than one set. The RANDOM policy draws its victims in a different order in a one
+ * set cache, so its sampled results differ from a full run more than the sampling alone explains.
+ *
+ * Usage: java lsi.instruction.SampledCacheSimulation input [key=value...]
+ * where input is a trace saved by AddressTrace or a memory image, recorded first as by CacheSweep. Keys:
+ *   size=1024  associativity=4  lineSize=1  policy=LRU  usingWritePolicies=true  writeHit=0  writeMiss=2  seed=0
+ *   setRatio=1  period=0  warmup=0  measure=0  cycles=40001  exact=true
+ * With exact the whole stream is also simulated, to compare the estimates with the true rates and time both runs.
+ */
+public class SampledCacheSimulation {
+
+	// Normal quantile of a two sided 95% interval
+	public static final double Z_95 = 1.96;
+
+	private static final int STATS = CacheStat.ALL.length;
+
+	private int size, associativity, lineSize;
+	private String replacementPolicy;
+	private WritePolicy writePolicy;
+	private long seed;
+	private int ways, sets;
+
+	private int setRatio = 1;
+	private int period = 0, warmup = 0, measure = 0;
+
+	// Results of the last run
+	private long accesses; // accesses in the trace
+	private long simulated; // accesses run through a cache
+	private int units;
+	private long[] unitAccesses = new long[16];
+	private long[] unitStats = new long[16 * STATS]; // stats of unit u at [u * STATS, (u + 1) * STATS)
+	private double sampledFraction; // share of the population of units that was sampled, for the finite population correction
+
+	/**
+	 * @throws IllegalArgumentException If the geometry or the policy name are not valid, see PhysicalMemory.create
+	 */
+	public SampledCacheSimulation(int size, int associativity, int lineSize, String replacementPolicy, WritePolicy writePolicy, long seed) {
+		PhysicalMemory memory = PhysicalMemory.create(size, associativity, lineSize, replacementPolicy, seed);
+		this.size = size;
+		this.associativity = associativity;
+		this.lineSize = lineSize;
+		this.replacementPolicy = replacementPolicy;
+		this.writePolicy = writePolicy;
+		this.seed = seed;
+		this.ways = memory.getWays();
+		this.sets = memory.getSets();
+	}
+
+	/**
+	 * Simulates one set in ratio, 1 simulates every set.
+	 */
+	public void setSetSampling(int ratio) {
+		if(ratio <= 0 || (ratio > 1 && ratio > sets)) {
+			throw new IllegalArgumentException("Set sampling ratio must be between 1 and the " + sets + " sets of the cache, got " + ratio);
+		}
+		this.setRatio = ratio;
+	}
+
+	/**
+	 * Counts measure accesses after warmup accesses in every period accesses, a period of 0 counts every access.
+	 */
+	public void setTimeSampling(int period, int warmup, int measure) {
+		if(period < 0 || warmup < 0 || measure < 0 || (period > 0 && (measure == 0 || warmup + measure > period))) {
+			throw new IllegalArgumentException("Time sampling needs 0 < warmup + measure <= period, got period=" + period + " warmup=" + warmup + " measure=" + measure);
+		}
+		this.period = period;
+		this.warmup = warmup;
+		this.measure = measure;
+	}
+
+	public void run(AddressTrace trace) {
+		int processors = trace.getProcessors();
+		int sampledSets = (setRatio == 1) ? 1 : (sets + setRatio - 1) / setRatio;
+		CacheSimulator[][] caches = new CacheSimulator[processors][sampledSets];
+		for(int pe = 0; pe < processors; pe++) {
+			for(int s = 0; s < sampledSets; s++) {
+				caches[pe][s] = (setRatio == 1) ? newSimulator(size, associativity) : newSimulator(ways * lineSize, ways);
+			}
+		}
+		long[] perCache = new long[processors * sampledSets]; // accesses each cache was counted for
+
+		accesses = trace.length();
+		simulated = 0;
+		units = 0;
+		long[] before = new long[STATS];
+		boolean open = false; // a measurement window is in progress
+		long counted = 0; // accesses counted in the window
+		for(int i = 0; i < trace.length(); i++) {
+			int phase = (period == 0) ? warmup : i % period;
+			if(period > 0) {
+				if(open && (phase == warmup + measure || phase == 0)) {
+					closeWindow(caches, before, counted);
+					open = false;
+				}
+				if(phase == warmup) {
+					sum(caches, before);
+					open = true;
+					counted = 0;
+				}
+				if(phase >= warmup + measure) {
+					continue;
+				}
+			}
+			int address = trace.getAddress(i);
+			int s = 0;
+			if(setRatio > 1) {
+				int set = ((address & Integer.MAX_VALUE) / lineSize) % sets;
+				if(set % setRatio != 0) {
+					continue;
+				}
+				s = set / setRatio;
+			}
+			int pe = trace.getPe(i);
+			caches[pe][s].access(trace.getType(i), address);
+			simulated++;
+			if(phase >= warmup) {
+				perCache[pe * sampledSets + s]++;
+				counted++;
+			}
+		}
+		if(open) {
+			closeWindow(caches, before, counted);
+		}
+
+		if(period > 0) {
+			sampledFraction = (double)measure / period;
+		} else {
+			// every sampled set of every PE is a unit
+			for(int pe = 0; pe < processors; pe++) {
+				for(int s = 0; s < sampledSets; s++) {
+					int u = newUnit(perCache[pe * sampledSets + s]);
+					for(CacheStat stat : CacheStat.ALL) {
+						unitStats[u * STATS + stat.ordinal()] = caches[pe][s].get(stat);
+					}
+				}
+			}
+			sampledFraction = (setRatio == 1) ? 1 : (double)sampledSets / sets;
+		}
+	}
+
+	private CacheSimulator newSimulator(int words, int ways) {
+		return new CacheSimulator(PhysicalMemory.create(words, ways, lineSize, replacementPolicy, seed), writePolicy);
+	}
+
+	private static void sum(CacheSimulator[][] caches, long[] total) {
+		Arrays.fill(total, 0);
+		for(CacheSimulator[] row : caches) {
+			for(CacheSimulator cache : row) {
+				for(CacheStat stat : CacheStat.ALL) {
+					total[stat.ordinal()] += cache.get(stat);
+				}
+			}
+		}
+	}
+
+	private void closeWindow(CacheSimulator[][] caches, long[] before, long counted) {
+		long[] after = new long[STATS];
+		sum(caches, after);
+		int u = newUnit(counted);
+		for(int k = 0; k < STATS; k++) {
+			unitStats[u * STATS + k] = after[k] - before[k];
+		}
+	}
+
+	private int newUnit(long unitAccessCount) {
+		if(units == unitAccesses.length) {
+			unitAccesses = Arrays.copyOf(unitAccesses, units * 2);
+			unitStats = Arrays.copyOf(unitStats, units * 2 * STATS);
+		}
+		unitAccesses[units] = unitAccessCount;
+		return units++;
+	}
+
+	private long unitTotal(int u, CacheStat[] stats) {
+		long total = 0;
+		for(CacheStat stat : stats) {
+			total += unitStats[u * STATS + stat.ordinal()];
+		}
+		return total;
+	}
+
+	/**
+	 * Returns the estimated rate per access of the sum of the given statistics.
+	 */
+	public double estimate(CacheStat... stats) {
+		long x = 0;
+		long y = 0;
+		for(int u = 0; u < units; u++) {
+			x += unitAccesses[u];
+			y += unitTotal(u, stats);
+		}
+		return (x == 0) ? 0 : (double)y / x;
+	}
+
+	/**
+	 * Returns the half width of the 95% confidence interval of estimate(stats), 0 when every unit of the population
+	 * was simulated and infinite with fewer than two units.
+	 */
+	public double halfWidth(CacheStat... stats) {
+		if(sampledFraction >= 1) {
+			return 0;
+		}
+		if(units < 2) {
+			return Double.POSITIVE_INFINITY;
+		}
+		double ratio = estimate(stats);
+		double meanAccesses = 0;
+		for(int u = 0; u < units; u++) {
+			meanAccesses += unitAccesses[u];
+		}
+		meanAccesses /= units;
+		if(meanAccesses == 0) {
+			return 0;
+		}
+		double residuals = 0;
+		for(int u = 0; u < units; u++) {
+			double residual = unitTotal(u, stats) - ratio * unitAccesses[u];
+			residuals += residual * residual;
+		}
+		double variance = residuals / (units - 1) / (units * meanAccesses * meanAccesses) * (1 - sampledFraction);
+		return Z_95 * Math.sqrt(variance);
+	}
+
+	public long getAccesses() {
+		return accesses;
+	}
+
+	public long getSimulated() {
+		return simulated;
+	}
+
+	public int getUnits() {
+		return units;
+	}
+
+	/**
+	 * Lists the hit and miss rates with their confidence intervals, then every statistic, write-to-main among them.
+	 */
+	public String report() {
+		StringBuilder report = new StringBuilder();
+		report.append("simulated ").append(simulated).append(" of ").append(accesses).append(" accesses over ").append(units).append(" units\n");
+		appendRate(report, "hit", CacheStat.READ_HIT, CacheStat.WRITE_HIT);
+		appendRate(report, "miss", CacheStat.READ_MISS, CacheStat.WRITE_MISS);
+		for(CacheStat stat : CacheStat.ALL) {
+			appendRate(report, stat.label, stat);
+		}
+		return report.toString();
+	}
+
+	private void appendRate(StringBuilder report, String name, CacheStat... stats) {
+		report.append(name).append(": ").append(estimate(stats)).append(" +- ").append(halfWidth(stats)).append('\n');
+	}
+
+	public static void main(String[] args) throws IOException {
+		if(args.length < 1) {
+			System.err.println("Usage: java lsi.instruction.SampledCacheSimulation traceOrMemoryFile [size=..] [associativity=..] [lineSize=..] [policy=..] [usingWritePolicies=..] [writeHit=..] [writeMiss=..] [seed=..] [setRatio=..] [period=..] [warmup=..] [measure=..] [cycles=..] [exact=true]");
+			System.exit(1);
+		}
+		int size = 1024;
+		int associativity = 4;
+		int lineSize = 1;
+		String policy = ReplacementPolicy.LRU;
+		boolean usingWritePolicies = true;
+		int writeHit = WritePolicy.WRITE_BACK;
+		int writeMiss = WritePolicy.WRITE_AROUND;
+		long seed = 0;
+		int setRatio = 1;
+		int period = 0;
+		int warmup = 0;
+		int measure = 0;
+		long cycles = 40001;
+		boolean exact = true;
+		for(int i = 1; i < args.length; i++) {
+			int split = args[i].indexOf('=');
+			if(split < 0) {
+				throw new IllegalArgumentException("Expected key=value, got " + args[i]);
+			}
+			String key = args[i].substring(0, split);
+			String value = args[i].substring(split + 1);
+			if(key.equals("size")) {
+				size = Integer.parseInt(value);
+			} else if(key.equals("associativity")) {
+				associativity = Integer.parseInt(value);
+			} else if(key.equals("lineSize")) {
+				lineSize = Integer.parseInt(value);
+			} else if(key.equals("policy")) {
+				policy = value;
+			} else if(key.equals("usingWritePolicies")) {
+				usingWritePolicies = Boolean.parseBoolean(value);
+			} else if(key.equals("writeHit")) {
+				writeHit = Integer.parseInt(value);
+			} else if(key.equals("writeMiss")) {
+				writeMiss = Integer.parseInt(value);
+			} else if(key.equals("seed")) {
+				seed = Long.parseLong(value);
+			} else if(key.equals("setRatio")) {
+				setRatio = Integer.parseInt(value);
+			} else if(key.equals("period")) {
+				period = Integer.parseInt(value);
+			} else if(key.equals("warmup")) {
+				warmup = Integer.parseInt(value);
+			} else if(key.equals("measure")) {
+				measure = Integer.parseInt(value);
+			} else if(key.equals("cycles")) {
+				cycles = Long.parseLong(value);
+			} else if(key.equals("exact")) {
+				exact = Boolean.parseBoolean(value);
+			} else {
+				throw new IllegalArgumentException("Unknown option " + key);
+			}
+		}
+
+		AddressTrace trace = AddressTrace.open(args[0], cycles);
+		WritePolicy writePolicy = new WritePolicy(usingWritePolicies, writeHit, writeMiss);
+		SampledCacheSimulation sampled = new SampledCacheSimulation(size, associativity, lineSize, policy, writePolicy, seed);
+		sampled.setSetSampling(setRatio);
+		sampled.setTimeSampling(period, warmup, measure);
+		long start = System.nanoTime();
+		sampled.run(trace);
+		double sampledSeconds = (System.nanoTime() - start) / 1e9;
+		System.out.print(sampled.report());
+		System.out.println("sampled run: " + sampledSeconds + " s");
+
+		if(exact) {
+			SampledCacheSimulation full = new SampledCacheSimulation(size, associativity, lineSize, policy, writePolicy, seed);
+			start = System.nanoTime();
+			full.run(trace);
+			double fullSeconds = (System.nanoTime() - start) / 1e9;
+			System.out.println("exact: hit=" + full.estimate(CacheStat.READ_HIT, CacheStat.WRITE_HIT)
+					+ " miss=" + full.estimate(CacheStat.READ_MISS, CacheStat.WRITE_MISS)
+					+ " write-to-main=" + full.estimate(CacheStat.WRITE_TO_MAIN));
+			System.out.println("exact run: " + fullSeconds + " s, speedup " + (fullSeconds / sampledSeconds));
+		}
+	}
+
+}
@@ -0,0 +1,112 @@
+package lsi.instruction;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+import ptolemy.actor.Manager;
+import ptolemy.actor.TypedCompositeActor;
+
+/**
+ * Runs the multiprocessor built by MultiprocessorBuilder with 1, 2, 4... up to maxCores cores on the shared bus and
+ * prints one CSV line per run: simulated throughput (bus transactions and instructions per cycle, bus utilization) and
+ * simulation speed (wall-clock seconds and simulated cycles per second).
+ *
+ * Each core count can be run by the Ptolemy DE model and by HeadlessSimulator, which shows how the cost of simulating
+ * the model grows with the width of the bus multiports. Both engines do the same work: HeadlessSimulator is given a
+ * CacheSimulator per core with the defaults of Cache, as the built caches keep them, and the CoherenceSimulator of
+ * CoherentCaches. Cache profiling is turned off in the model, and HeadlessSimulator steps every cycle unless the
+ * headless-skip engine lets it jump over idle ones. The wall-clock time covers the run only, not building the
+ * model or, for HeadlessSimulator, loading the memory image; Ptolemy loads it in initialize, a binary image keeps that
+ * short. The output the actors print on wrapup is discarded.
+ *
+ * Usage: java lsi.instruction.ScalingBenchmark memoryFile [maxCores] [cycles] [engines]
+ * where engines is a comma separated list of ptolemy, headless and headless-skip, ptolemy,headless by default.
+ */
+public class ScalingBenchmark {
+
+	public static final String PTOLEMY = "ptolemy";
+	public static final String HEADLESS = "headless";
+	public static final String HEADLESS_SKIP = "headless-skip";
+
+	public static void main(String[] args) throws Exception {
+		if(args.length < 1) {
+			System.err.println("Usage: java lsi.instruction.ScalingBenchmark memoryFile [maxCores] [cycles] [engines]");
+			System.exit(1);
+		}
+		String memoryFile = args[0];
+		int maxCores = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+		long cycles = args.length > 2 ? Long.parseLong(args[2]) : 40000;
+		String[] engines = (args.length > 3 ? args[3] : PTOLEMY + "," + HEADLESS).split(",");
+
+		System.out.println("cores,engine,cycles,instructions,completed,throughput,ipc,utilization,wall-seconds,cycles-per-second");
+		for(int cores = 1; cores <= maxCores; cores *= 2) {
+			for(String engine : engines) {
+				long[] result; // instructions, completed, transfer cycles, wall-clock nanoseconds
+				if(PTOLEMY.equalsIgnoreCase(engine.trim())) {
+					result = runPtolemy(memoryFile, cores, cycles);
+				} else if(HEADLESS.equalsIgnoreCase(engine.trim())) {
+					result = runHeadless(memoryFile, cores, cycles, false);
+				} else if(HEADLESS_SKIP.equalsIgnoreCase(engine.trim())) {
+					result = runHeadless(memoryFile, cores, cycles, true);
+				} else {
+					throw new IllegalArgumentException("Unknown engine: " + engine);
+				}
+				double seconds = result[3] / 1e9;
+				System.out.println(cores + "," + engine.trim() + "," + cycles + "," + result[0] + "," + result[1]
+						+ "," + (double)result[1] / cycles + "," + (double)result[0] / cycles + "," + (double)result[2] / cycles
+						+ "," + seconds + "," + cycles / seconds);
+			}
+		}
+	}
+
+	private static long[] runPtolemy(String memoryFile, int cores, long cycles) throws Exception {
+		MultiprocessorBuilder builder = new MultiprocessorBuilder(memoryFile, cores, null);
+		builder.setCycles(cycles);
+		builder.setCacheParameter("profileTopK", "0");
+		TypedCompositeActor model = builder.build();
+		Manager manager = new Manager(model.workspace(), "manager");
+		model.setManager(manager);
+		PrintStream out = System.out;
+		System.setOut(new PrintStream(new OutputStream() {
+			public void write(int b) {
+			}
+		}));
+		long start = System.nanoTime();
+		try {
+			manager.execute();
+		} finally {
+			System.setOut(out);
+		}
+		long elapsed = System.nanoTime() - start;
+		long instructions = 0;
+		for(int i = 0; i < cores; i++) {
+			instructions += builder.getProcessor(i).counters.get(InstructionProcessor.INSTRUCTIONS);
+		}
+		PerformanceCounters bus = builder.getBus().counters;
+		return new long[] {instructions, bus.get(SingleSharedMemoryBus.COMPLETED), bus.get(SingleSharedMemoryBus.TRANSFER_CYCLES), elapsed};
+	}
+
+	private static long[] runHeadless(String memoryFile, int cores, long cycles, boolean skipIdleCycles) throws Exception {
+		int[] initialPCs = new int[cores];
+		CacheSimulator[] caches = new CacheSimulator[cores];
+		PhysicalMemory[] coherentCaches = new PhysicalMemory[cores];
+		for(int i = 0; i < cores; i++) {
+			initialPCs[i] = HeadlessSimulator.MODEL_INITIAL_PCS[i % HeadlessSimulator.MODEL_INITIAL_PCS.length];
+			// The defaults of Cache and CoherentCaches
+			caches[i] = new CacheSimulator(PhysicalMemory.create(128, 0, 1, ReplacementPolicy.FIFO, 1), new WritePolicy(false, WritePolicy.WRITE_BACK, WritePolicy.WRITE_AROUND));
+			coherentCaches[i] = PhysicalMemory.create(128, 0, 1, ReplacementPolicy.FIFO, i);
+		}
+		HeadlessSimulator simulator = new HeadlessSimulator(MemoryImage.open(memoryFile), initialPCs, caches);
+		simulator.setCoherence(new CoherenceSimulator(coherentCaches, CoherenceSimulator.MESI));
+		simulator.setSkipIdleCycles(skipIdleCycles);
+		long start = System.nanoTime();
+		simulator.run(cycles);
+		long elapsed = System.nanoTime() - start;
+		long instructions = 0;
+		for(int i = 0; i < cores; i++) {
+			instructions += simulator.getInstructions(i);
+		}
+		return new long[] {instructions, simulator.getCompleted(), simulator.getTransferCycles(), elapsed};
+	}
+
+}
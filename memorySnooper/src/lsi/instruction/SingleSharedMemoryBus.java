@@ -9,28 +9,55 @@ package lsi.instruction;
  * to its address and/data lines, as well as the arbitration, write and read request signals. Likewise, it uses RecordToken
  * instances to implicitly represent grant and acknowledge signals.
  * 
- * Arbitration of requests is based on fixed priorities, with master at input channel 0 having the highest priority and the 
- * master at input channel n with the lowest priority (where n+1 is the number of masters).
+ * Arbitration of requests is delegated to an Arbiter selected by the arbitration parameter. By default it is based on fixed
+ * priorities, with master at input channel 0 having the highest priority and the master at input channel n with the lowest
+ * priority (where n+1 is the number of masters). Round robin, TDMA, weighted fair share and lottery arbiters can be chosen
+ * instead, configured by the weights, slot table, slot length and seed parameters.
+ * 
+ * For each master the bus counts the grants, the cycles spent waiting for a grant and the longest wait, and prints them on wrapup.
+ * 
+ * By default transactions are atomic: a READ holds the bus from arbitration until the data from memory has been delivered.
+ * With splitTransactions set, the bus is released as soon as a request has been forwarded to memory, and up to maxOutstanding
+ * READs can wait for their data at the same time. Each one is tagged with its master in a queue; memory answers in the order
+ * requests reach it, so each response is routed to the master at the head of the queue. A response and a new request compete
+ * for the same cycle, the response goes first. Bus utilization (cycles with a transfer on the bus), occupancy (cycles the bus
+ * could not be arbitrated) and throughput (completed transactions) are printed on wrapup in both modes.
+ * 
+ * These figures and a histogram of the cycles masters waited for a grant are kept in PerformanceCounters, readable live over JMX
+ * and appended as CSV to the counters file on wrapup if one is set.
  * 
  * Once given arbitration to a master, the bus forwards its request to the shared memory via its toMemory port and, 
  * in case of a READ transaction, waits for a response on its fromMemory port.
  * 
+ * Every transaction is also published once on the snoop port, in the cycle its request is forwarded to memory: the
+ * request, tagged with the master that issued it (see Instruction.getCommitToken). Unlike the masters' own outputs, which
+ * repeat a request on every cycle it waits for a grant, it lets caches and other observers see each real transaction
+ * exactly once, two identical requests in a row included. The tokens are only built when the port is connected.
+ * 
  * Actor also has three ports for debug purposes:
  * 
  * - debug: outputs the ID of the master that holds arbitration to the bus (or -1 in case of a memory-driven DATA value)
  * - data bus state: upon a change, outputs the state of the data sub-bus, in a string representing a 16-bit binary value 
  * - address bus state: upon a change, outputs the state of the address sub-bus, in a string representing a 16-bit binary value 
+ * The bus state strings are only built when the port is connected.
+ * 
+ * Setting the trace file parameter records every transfer (cycle, master, type, address, data) into a binary file through a
+ * BusTraceWriter, decoded offline by BusTraceDecoder.
  * 
  */
 
+import java.io.IOException;
+
 import ptolemy.actor.TypedAtomicActor;
 import ptolemy.actor.TypedIOPort;
 import ptolemy.actor.util.Time;
+import ptolemy.data.BooleanToken;
 import ptolemy.data.DoubleToken;
 import ptolemy.data.IntToken;
 import ptolemy.data.RecordToken;
 import ptolemy.data.StringToken;
 import ptolemy.data.expr.Parameter;
+import ptolemy.data.expr.StringParameter;
 import ptolemy.data.type.BaseType;
 import ptolemy.kernel.CompositeEntity;
 import ptolemy.kernel.util.IllegalActionException;
@@ -48,7 +75,36 @@ public class SingleSharedMemoryBus extends TypedAtomicActor {
 	protected Time sendTime;
 	protected boolean toMaster;
 
-	protected TypedIOPort input, output, clk, debug, dataBusState, addressBusState, toMemory, fromMemory;
+	protected TypedIOPort input, output, clk, debug, dataBusState, addressBusState, toMemory, fromMemory, snoop;
+
+	protected StringParameter arbitration; // FIXED_PRIORITY, ROUND_ROBIN, TDMA, WEIGHTED_FAIR or LOTTERY
+	protected StringParameter weights; // comma separated share of each master for WEIGHTED_FAIR and tickets for LOTTERY, empty for equal shares
+	protected StringParameter slotTable; // comma separated owner of each TDMA slot, empty for one slot per master
+	protected Parameter slotLength; // cycles per TDMA slot
+	protected Parameter arbitrationSeed; // seed of the LOTTERY arbiter
+	protected Arbiter arbiter;
+
+	// arbitration statistics, indexed by master
+	protected long cycle; // clock cycles since initialisation
+	protected long[] waitingSince; // cycle the pending request of each master was first seen, -1 if none
+	protected long[] grants, waitCycles, maxWait;
+
+	protected Parameter splitTransactions; // release the bus between request and response of a READ
+	protected Parameter maxOutstanding; // READs that can wait for memory at the same time in split mode
+	protected StringParameter traceFile; // binary trace of the transfers, empty for none
+	protected BusTraceWriter tracer; // null when not tracing
+	protected boolean dataBusWatched, addressBusWatched, snooped; // state and snoop ports connected
+	protected boolean split;
+	protected int[] outstanding; // masters waiting for a response in split mode, oldest at outstandingHead
+	protected int outstandingHead, outstandingCount;
+	protected RecordToken response; // data from memory to be delivered in split mode
+
+	// utilization statistics and grant wait histogram
+	protected static final int CYCLES = 0, BUSY_CYCLES = 1, TRANSFER_CYCLES = 2, COMPLETED = 3, GRANTS = 4, WAIT_CYCLES = 5, WAIT_HISTOGRAM = 6;
+	protected static final String[] COUNTER_NAMES = {"cycles", "busy-cycles", "transfer-cycles", "completed", "grants", "wait-cycles",
+		"wait-0", "wait-1", "wait-2-3", "wait-4-7", "wait-8-15", "wait-16-31", "wait-32-63", "wait-64-127", "wait-128-255", "wait-256+"};
+	protected PerformanceCounters counters;
+	protected StringParameter countersFile; // CSV the counters are appended to on wrapup, empty for none
 
 	public SingleSharedMemoryBus(CompositeEntity container, String name)
 			throws NameDuplicationException, IllegalActionException  {
@@ -94,6 +150,43 @@ public class SingleSharedMemoryBus extends TypedAtomicActor {
 		debug.setTypeEquals(BaseType.INT);
 
 
+		// snoop port, outputs each committed transaction once, tagged with its master
+		snoop = new TypedIOPort(this, "snoop", false, true);
+		snoop.setTypeEquals(Instruction.getCommitTokenType());
+
+
+		arbitration = new StringParameter(this, "arbitration");
+		arbitration.setExpression(Arbiter.FIXED_PRIORITY);
+		arbitration.addChoice(Arbiter.FIXED_PRIORITY);
+		arbitration.addChoice(Arbiter.ROUND_ROBIN);
+		arbitration.addChoice(Arbiter.TDMA);
+		arbitration.addChoice(Arbiter.WEIGHTED_FAIR);
+		arbitration.addChoice(Arbiter.LOTTERY);
+
+		weights = new StringParameter(this, "weights");
+		weights.setExpression("");
+		slotTable = new StringParameter(this, "slotTable");
+		slotTable.setExpression("");
+
+		slotLength = new Parameter(this, "slotLength");
+		slotLength.setTypeEquals(BaseType.INT);
+		slotLength.setExpression("1");
+		arbitrationSeed = new Parameter(this, "arbitrationSeed");
+		arbitrationSeed.setTypeEquals(BaseType.INT);
+		arbitrationSeed.setExpression("1");
+
+		splitTransactions = new Parameter(this, "splitTransactions");
+		splitTransactions.setTypeEquals(BaseType.BOOLEAN);
+		splitTransactions.setExpression("false");
+		maxOutstanding = new Parameter(this, "maxOutstanding");
+		maxOutstanding.setTypeEquals(BaseType.INT);
+		maxOutstanding.setExpression("4");
+
+		traceFile = new StringParameter(this, "trace file");
+		traceFile.setExpression("");
+
+		countersFile = new StringParameter(this, "counters file");
+		countersFile.setExpression("");
 
 	}
 
@@ -117,6 +210,53 @@ public class SingleSharedMemoryBus extends TypedAtomicActor {
 		}
 		debugTokens[masters] = new IntToken(-1); // plus one for memory
 
+		try{
+			arbiter = Arbiter.create(arbitration.stringValue(), masters,
+					parseList(weights.stringValue()), parseList(slotTable.stringValue()),
+					((IntToken)slotLength.getToken()).intValue(), ((IntToken)arbitrationSeed.getToken()).intValue());
+		}
+		catch(IllegalArgumentException e){
+			throw new IllegalActionException(this, e.getMessage());
+		}
+
+		cycle = 0;
+		waitingSince = new long[masters];
+		grants = new long[masters];
+		waitCycles = new long[masters];
+		maxWait = new long[masters];
+		for(int i=0;i<masters;i++){
+			waitingSince[i] = -1;
+		}
+
+		split = ((BooleanToken)splitTransactions.getToken()).booleanValue();
+		int slots = ((IntToken)maxOutstanding.getToken()).intValue();
+		if(slots <= 0){
+			throw new IllegalActionException(this, "maxOutstanding must be positive, got " + slots);
+		}
+		outstanding = new int[slots];
+		outstandingHead = 0;
+		outstandingCount = 0;
+		response = null;
+		counters = new PerformanceCounters(getFullName(), COUNTER_NAMES);
+		counters.addRatio("utilization", TRANSFER_CYCLES, CYCLES);
+		counters.addRatio("occupancy", BUSY_CYCLES, CYCLES);
+		counters.addRatio("throughput", COMPLETED, CYCLES);
+		counters.addRatio("average-wait", WAIT_CYCLES, GRANTS);
+		counters.register("SingleSharedMemoryBus");
+
+		dataBusWatched = dataBusState.getWidth() > 0;
+		addressBusWatched = addressBusState.getWidth() > 0;
+		snooped = snoop.getWidth() > 0;
+		tracer = null;
+		if(!traceFile.stringValue().isEmpty()){
+			try{
+				tracer = new BusTraceWriter(traceFile.stringValue(), 1 << 16);
+			}
+			catch(IOException e){
+				throw new IllegalActionException(this, e, "Opening the bus trace failed");
+			}
+		}
+
 
 		// initialise state-holding variables
 		
@@ -127,31 +267,44 @@ public class SingleSharedMemoryBus extends TypedAtomicActor {
 
 	public void fire() throws IllegalActionException{
 
+		if(split){
+			fireSplit();
+			return;
+		}
 
 		if(clk.hasToken(0)){
 
 			clk.get(0); // consume clock token
+			cycle++;
+			counters.increment(CYCLES);
+			if(toSend!=null || activeMaster!=-1) counters.increment(BUSY_CYCLES);
 
 			if(toSend!=null){  // data driven to the bus needs to be sent to destination
 
+				counters.increment(TRANSFER_CYCLES);
 				if(toMaster){ // if second phase of a read transaction
 					output.send(activeMaster, toSend); // send response to active master
 					debug.send(0,debugTokens[masters]); // send out debug info
-					dataBusState.send(0, new StringToken(getDataBusCurrentState(toSend))); // outputs new data bus state
+					showDataBus(toSend); // outputs new data bus state
+					trace(-1, toSend);
 					activeMaster=-1; 	// finish transaction
+					counters.increment(COMPLETED);
 
 				}
 				else{        // else, first phase of a read or write transaction
 					toMemory.send(0, toSend); // send request to memory
 					output.send(activeMaster, toSend); // GRANT signal - sends back a token to the successful master to confirm it was granted arbitration
 					debug.send(0, debugTokens[activeMaster]); // send out debug info
-					addressBusState.send(0,  new StringToken(getAddressBusCurrentState(toSend))); // // outputs new address bus state
+					showAddressBus(toSend); // // outputs new address bus state
+					trace(activeMaster, toSend);
+					commit(activeMaster, toSend);
 
 					// if request is a WRITE, close the transaction right after sending it to memory
 					int type = ((IntToken)toSend.get("type")).intValue();
 					if(type==Instruction.WRITE){ 
 						activeMaster=-1;  
-						dataBusState.send(0,  new StringToken(getDataBusCurrentState(toSend))); // // outputs new data bus state
+						counters.increment(COMPLETED);
+						showDataBus(toSend); // // outputs new data bus state
 
 						
 					}
@@ -176,27 +329,110 @@ public class SingleSharedMemoryBus extends TypedAtomicActor {
 
 		else {   // no ongoing transactions, process arbitration requests
 
-			for(int i=0;i<masters;i++){
+			arbitrate();
+		}
 
-				if(input.hasToken(i)) currentArbitrationRequests[i]=1;
-				else currentArbitrationRequests[i]=0;
+		discardRequests();
 
-			}
+	}
 
-			activeMaster = performArbitration();
 
-			if(activeMaster!=-1){ // if there's a successful request
+	/*
+	 * Split transaction mode: the bus is only held for one cycle per transfer, READs wait for their data in the outstanding queue.
+	 */
+	protected void fireSplit() throws IllegalActionException{
 
-				toSend = (RecordToken)input.get(activeMaster); // queue a read request over the next clock cycle
-				toMaster=false;  // read request should be sent to memory
+		if(clk.hasToken(0)){
+
+			clk.get(0); // consume clock token
+			cycle++;
+			counters.increment(CYCLES);
+			if(toSend!=null || response!=null) counters.increment(BUSY_CYCLES);
+
+			if(response!=null){ // second phase of a read transaction, routed to the oldest outstanding master
+
+				int master = outstanding[outstandingHead];
+				outstandingHead = (outstandingHead+1) % outstanding.length;
+				outstandingCount--;
+				output.send(master, response);
+				debug.send(0,debugTokens[masters]); // send out debug info
+				showDataBus(response); // outputs new data bus state
+				trace(-1, response);
+				response=null;
+				counters.increment(TRANSFER_CYCLES);
+				counters.increment(COMPLETED);
+
+			}
+			else if(toSend!=null){ // first phase of a read or write transaction, the granted request waits while a response is delivered
+
+				toMemory.send(0, toSend); // send request to memory
+				output.send(activeMaster, toSend); // GRANT signal
+				debug.send(0, debugTokens[activeMaster]); // send out debug info
+				showAddressBus(toSend); // outputs new address bus state
+				trace(activeMaster, toSend);
+				commit(activeMaster, toSend);
+
+				int type = ((IntToken)toSend.get("type")).intValue();
+				if(type==Instruction.WRITE){
+					showDataBus(toSend); // outputs new data bus state
+					counters.increment(COMPLETED);
+				}
+				else{ // tag the read with its master, the bus is free again
+					outstanding[(outstandingHead+outstandingCount) % outstanding.length] = activeMaster;
+					outstandingCount++;
+				}
+				activeMaster=-1;
+				toSend=null;
+				counters.increment(TRANSFER_CYCLES);
 
 			}
 		}
 
+		if(fromMemory.hasToken(0)){
+			response = (RecordToken) fromMemory.get(0); // delivered over the next clock cycle
+		}
+
+		if(toSend==null && outstandingCount<outstanding.length){
+			arbitrate();
+		}
+
+		discardRequests();
+
+	}
+
+
+	protected void arbitrate() throws IllegalActionException{
+
+		for(int i=0;i<masters;i++){
+
+			if(input.hasToken(i)) currentArbitrationRequests[i]=1;
+			else currentArbitrationRequests[i]=0;
+
+		}
+
+		activeMaster = performArbitration();
+
+		if(activeMaster!=-1){ // if there's a successful request
+
+			toSend = (RecordToken)input.get(activeMaster); // queue a read request over the next clock cycle
+			toMaster=false;  // read request should be sent to memory
+			recordGrant(activeMaster);
+
+		}
+	}
+
+
+	protected void discardRequests() throws IllegalActionException{
+
 		// discard all remaining arbitration requests received on the current cycle
+		// the masters that sent them keep waiting from the first cycle they were seen,
+		// except a granted master repeating its request until the grant is sent
 		for(int i=0;i<masters;i++){
 
-			if(input.hasToken(i)) input.get(i);
+			if(input.hasToken(i)){
+				input.get(i);
+				if(waitingSince[i]==-1 && !(i==activeMaster && toSend!=null)) waitingSince[i]=cycle;
+			}
 
 		}
 
@@ -206,17 +442,93 @@ public class SingleSharedMemoryBus extends TypedAtomicActor {
 
 	protected int performArbitration(){
 
-		for(int i=0; i<currentArbitrationRequests.length;i++){
+		return arbiter.select(currentArbitrationRequests, cycle);
+
+	}
+
+
+	protected void recordGrant(int master){
+
+		long wait = (waitingSince[master]==-1) ? 0 : cycle-waitingSince[master];
+		waitingSince[master] = -1;
+		grants[master]++;
+		waitCycles[master] += wait;
+		counters.increment(GRANTS);
+		counters.add(WAIT_CYCLES, wait);
+		int bucket = (wait==0) ? 0 : Math.min(64 - Long.numberOfLeadingZeros(wait), COUNTER_NAMES.length - 1 - WAIT_HISTOGRAM); // 1, 2-3, 4-7...
+		counters.increment(WAIT_HISTOGRAM + bucket);
+		if(wait > maxWait[master]) maxWait[master] = wait;
+
+	}
+
 
-			if(currentArbitrationRequests[i]==1) return i;   // performs fixed priority arbitration, with 0 as the highest priority
+	public void wrapup() throws IllegalActionException{
 
+		super.wrapup();
+		if(!countersFile.stringValue().isEmpty()){
+			try{
+				counters.writeCsv(countersFile.stringValue());
+			}
+			catch(IOException e){
+				throw new IllegalActionException(this, e, "Writing the counters failed");
+			}
+		}
+		counters.unregister();
+		if(tracer != null){
+			try{
+				tracer.close();
+				System.out.println(getName()+" traced "+tracer.getRecords()+" transfers to "+traceFile.stringValue());
+			}
+			catch(IOException e){
+				throw new IllegalActionException(this, e, "Writing the bus trace failed");
+			}
+			tracer = null;
 		}
+		System.out.println(getName()+" "+arbitration.stringValue()+" arbitration over "+cycle+" cycles");
+		System.out.println((split ? "split" : "atomic")+" transactions: completed="+counters.get(COMPLETED)
+				+" throughput="+(cycle==0 ? 0 : (double)counters.get(COMPLETED)/cycle)+" per cycle"
+				+" utilization="+(cycle==0 ? 0 : (double)counters.get(TRANSFER_CYCLES)/cycle)
+				+" occupancy="+(cycle==0 ? 0 : (double)counters.get(BUSY_CYCLES)/cycle));
+		for(int i=0;i<masters;i++){
+			System.out.println("master "+i+": grants="+grants[i]+" wait-cycles="+waitCycles[i]
+					+" avg-wait="+(grants[i]==0 ? 0 : (double)waitCycles[i]/grants[i])+" max-wait="+maxWait[i]);
+		}
+
+	}
 
-		return -1;
 
+	private static int[] parseList(String list){
+
+		if(list.trim().isEmpty()) return null;
+		String[] parts = list.split(",");
+		int[] values = new int[parts.length];
+		for(int i=0;i<parts.length;i++){
+			values[i] = Integer.parseInt(parts[i].trim());
+		}
+		return values;
+
+	}
+
+
+
+	protected void showDataBus(RecordToken token) throws IllegalActionException{
+		if(dataBusWatched) dataBusState.send(0, new StringToken(getDataBusCurrentState(token)));
 	}
 
+	protected void showAddressBus(RecordToken token) throws IllegalActionException{
+		if(addressBusWatched) addressBusState.send(0, new StringToken(getAddressBusCurrentState(token)));
+	}
 
+	protected void trace(int master, RecordToken token){
+		if(tracer != null){
+			tracer.record(cycle, master, ((IntToken)token.get("type")).intValue(),
+					((IntToken)token.get("address")).intValue(), ((IntToken)token.get("data")).intValue());
+		}
+	}
+
+	protected void commit(int master, RecordToken token) throws IllegalActionException{
+		if(snooped) snoop.send(0, Instruction.getCommitToken(debugTokens[master], token));
+	}
 
 	protected String getDataBusCurrentState(RecordToken token){
 		int data = ((IntToken)token.get("data")).intValue();
@@ -239,6 +551,7 @@ public class SingleSharedMemoryBus extends TypedAtomicActor {
 		super.pruneDependencies();
 		removeDependency(input, output);
 		removeDependency(input, toMemory);
+		removeDependency(input, snoop);
 	}
 
 
@@ -0,0 +1,246 @@
+package lsi.instruction;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+/**
+ * Computes the LRU stack distance of every access of an address stream, which gives the miss ratio of a fully
+ * associative LRU cache of every size in a single pass (Mattson et al.).
+ *
+ * The stack distance of an access is the number of distinct lines used since the previous access to its line: the
+ * access hits in any LRU cache holding more lines than that. Each line remembers the time of its last use, and a
+ * Fenwick tree over the times marks the ones that are still some line's last use, so the distinct lines used since a
+ * time are counted in O(log n). When the times run out they are renumbered in order of last use, which keeps the tree
+ * as small as the capacity it was built with.
+ *
+ * Writes count as accesses like reads, as for a cache that loads the line of every write (Cache without write policies).
+ *
+ * Usage: java lsi.instruction.StackDistanceAnalyzer input [key=value...]
+ * where input is a trace saved by AddressTrace or a memory image, recorded first as by CacheSweep. Keys:
+ *   lineSize=1  merged=true  sizes=pow2|all  cycles=40001  out=file
+ * Prints the miss ratio curve of each PE stream and, with merged, of the stream of all PEs through one cache, as CSV
+ * rows of stream, cache lines, cache words, misses and miss ratio. pow2 lists the powers of two up to the number of
+ * distinct lines, all lists every size.
+ */
+public class StackDistanceAnalyzer {
+
+	private int lineSize;
+	private int[] lastUse; // time of the last access of each line, 0 if never accessed
+	private int[] lineAt; // line last used at each time, -1 if used again since
+	private int[] tree; // Fenwick tree over times 1..capacity, 1 where a time is the last use of a line
+	private int time = 0;
+	private int lines = 0; // distinct lines seen
+	private long[] histogram; // accesses by stack distance
+	private long coldMisses = 0;
+	private long accesses = 0;
+
+	/**
+	 * @param lineSize Words per line
+	 * @param capacity Times kept in the tree before renumbering, at least the lines of the address space is sensible
+	 */
+	public StackDistanceAnalyzer(int lineSize, int capacity) {
+		if(lineSize <= 0) {
+			throw new IllegalArgumentException("Line size must be positive, got " + lineSize);
+		}
+		this.lineSize = lineSize;
+		int addressLines = (AddressProfiler.ADDRESS_SPACE + lineSize - 1) / lineSize;
+		capacity = Math.max(capacity, addressLines + 1); // renumbering must free at least one time
+		lastUse = new int[addressLines];
+		lineAt = new int[capacity + 1];
+		tree = new int[capacity + 1];
+		histogram = new long[addressLines];
+	}
+
+	public StackDistanceAnalyzer(int lineSize) {
+		this(lineSize, 4 * AddressProfiler.ADDRESS_SPACE);
+	}
+
+	/**
+	 * Records an access to the address and returns its stack distance, -1 for the first access to its line.
+	 */
+	public int access(int address) {
+		int line = ((address & Integer.MAX_VALUE) / lineSize) % lastUse.length;
+		if(time == tree.length - 1) {
+			renumber();
+		}
+		accesses++;
+		int distance;
+		int previous = lastUse[line];
+		if(previous == 0) {
+			coldMisses++;
+			lines++;
+			distance = -1;
+		} else {
+			distance = lines - prefix(previous); // last uses after the previous one
+			histogram[distance]++;
+			add(previous, -1);
+			lineAt[previous] = -1;
+		}
+		time++;
+		lastUse[line] = time;
+		lineAt[time] = line;
+		add(time, 1);
+		return distance;
+	}
+
+	/*
+	 * Gives the lines times 1..lines in the order of their last use and rebuilds the tree.
+	 */
+	private void renumber() {
+		int next = 0;
+		for(int t = 1; t <= time; t++) {
+			if(lineAt[t] != -1) {
+				next++;
+				lineAt[next] = lineAt[t];
+				lastUse[lineAt[next]] = next;
+			}
+		}
+		for(int t = next + 1; t <= time; t++) {
+			lineAt[t] = -1;
+		}
+		time = next;
+		// every time up to next is a last use: build the tree of a prefix of ones in O(n)
+		for(int t = 1; t < tree.length; t++) {
+			tree[t] = (t <= next) ? 1 : 0;
+		}
+		for(int t = 1; t < tree.length; t++) {
+			int parent = t + (t & -t);
+			if(parent < tree.length) {
+				tree[parent] += tree[t];
+			}
+		}
+	}
+
+	private void add(int t, int delta) {
+		for(; t < tree.length; t += t & -t) {
+			tree[t] += delta;
+		}
+	}
+
+	private int prefix(int t) {
+		int sum = 0;
+		for(; t > 0; t -= t & -t) {
+			sum += tree[t];
+		}
+		return sum;
+	}
+
+	/**
+	 * Returns the misses of a fully associative LRU cache of the given number of lines over the accesses so far.
+	 */
+	public long getMisses(int cacheLines) {
+		long misses = coldMisses;
+		for(int d = Math.max(cacheLines, 0); d < lines; d++) {
+			misses += histogram[d];
+		}
+		return misses;
+	}
+
+	/**
+	 * Returns the miss ratio curve: element c is the miss ratio of a cache of c lines, up to the number of distinct lines
+	 * seen, from which on only the cold misses are left.
+	 */
+	public double[] getMissRatioCurve() {
+		double[] curve = new double[lines + 1];
+		long misses = coldMisses;
+		for(int c = lines; c >= 0; c--) {
+			curve[c] = (accesses == 0) ? 0 : (double)misses / accesses;
+			if(c > 0) {
+				misses += histogram[c - 1];
+			}
+		}
+		return curve;
+	}
+
+	/**
+	 * Returns the number of accesses with the given stack distance.
+	 */
+	public long getHistogram(int distance) {
+		return histogram[distance];
+	}
+
+	public long getAccesses() {
+		return accesses;
+	}
+
+	public long getColdMisses() {
+		return coldMisses;
+	}
+
+	/**
+	 * Returns the number of distinct lines accessed, the largest cache that still gains hits.
+	 */
+	public int getLines() {
+		return lines;
+	}
+
+	public int getLineSize() {
+		return lineSize;
+	}
+
+	public static void main(String[] args) throws IOException {
+		if(args.length < 1) {
+			System.err.println("Usage: java lsi.instruction.StackDistanceAnalyzer traceOrMemoryFile [lineSize=1] [merged=true] [sizes=pow2|all] [cycles=n] [out=file]");
+			System.exit(1);
+		}
+		int lineSize = 1;
+		boolean merged = true;
+		boolean allSizes = false;
+		long cycles = 40001;
+		String out = null;
+		for(int i = 1; i < args.length; i++) {
+			int split = args[i].indexOf('=');
+			if(split < 0) {
+				throw new IllegalArgumentException("Expected key=value, got " + args[i]);
+			}
+			String key = args[i].substring(0, split);
+			String value = args[i].substring(split + 1);
+			if(key.equals("lineSize")) {
+				lineSize = Integer.parseInt(value);
+			} else if(key.equals("merged")) {
+				merged = Boolean.parseBoolean(value);
+			} else if(key.equals("sizes")) {
+				allSizes = value.equals("all");
+			} else if(key.equals("cycles")) {
+				cycles = Long.parseLong(value);
+			} else if(key.equals("out")) {
+				out = value;
+			} else {
+				throw new IllegalArgumentException("Unknown option " + key);
+			}
+		}
+
+		AddressTrace trace = AddressTrace.open(args[0], cycles);
+		long start = System.nanoTime();
+		StackDistanceAnalyzer[] analyzers = new StackDistanceAnalyzer[trace.getProcessors() + (merged ? 1 : 0)];
+		for(int a = 0; a < analyzers.length; a++) {
+			analyzers[a] = new StackDistanceAnalyzer(lineSize);
+		}
+		for(int i = 0; i < trace.length(); i++) {
+			analyzers[trace.getPe(i)].access(trace.getAddress(i));
+			if(merged) {
+				analyzers[analyzers.length - 1].access(trace.getAddress(i));
+			}
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+
+		PrintWriter writer = new PrintWriter((out != null) ? new FileWriter(out) : new PrintWriter(System.out));
+		writer.println("stream,lines,words,misses,miss-ratio");
+		for(int a = 0; a < analyzers.length; a++) {
+			String stream = (merged && a == analyzers.length - 1) ? "all" : "pe" + a;
+			StackDistanceAnalyzer analyzer = analyzers[a];
+			double[] curve = analyzer.getMissRatioCurve();
+			for(int c = 1; c < curve.length; c = allSizes ? c + 1 : c * 2) {
+				writer.println(stream + "," + c + "," + (c * lineSize) + "," + analyzer.getMisses(c) + "," + curve[c]);
+			}
+			if(!allSizes && Integer.bitCount(curve.length - 1) != 1 && curve.length > 1) {
+				int c = curve.length - 1; // the size from which on only cold misses are left
+				writer.println(stream + "," + c + "," + (c * lineSize) + "," + analyzer.getMisses(c) + "," + curve[c]);
+			}
+		}
+		writer.close();
+		System.err.println(trace.length() + " accesses analysed in " + seconds + " s");
+	}
+
+}
@@ -0,0 +1,76 @@
+package lsi.instruction;
+
+/**
+ * Stream buffers: FIFOs of sequential lines kept outside the cache, so useless prefetches do not evict anything.
+ *
+ * A miss that finds its line at the head of a buffer takes it from there, and the buffer fetches one more line at its
+ * tail. A miss no buffer holds reallocates the least recently used buffer to the degree lines starting distance lines
+ * after the missing one.
+ */
+public class StreamBufferPrefetcher extends Prefetcher {
+
+	private int[] head; // line at the head of each buffer
+	private int[] count; // lines held by each buffer
+	private long[] lastUse;
+	private long time = 0;
+	private int refill = -1; // line to fetch after a take, reported by the next access
+
+	/**
+	 * @param buffers Number of stream buffers, each holding degree lines
+	 */
+	public StreamBufferPrefetcher(int degree, int distance, int lines, int buffers) {
+		super(degree, distance, lines);
+		if(buffers <= 0) {
+			throw new IllegalArgumentException("Number of stream buffers must be positive, got " + buffers);
+		}
+		head = new int[buffers];
+		count = new int[buffers];
+		lastUse = new long[buffers];
+	}
+
+	public boolean fillsCache() {
+		return false;
+	}
+
+	public boolean take(int line) {
+		for(int b = 0; b < head.length; b++) {
+			if(count[b] > 0 && head[b] == line) {
+				int tail = head[b] + count[b];
+				head[b]++;
+				count[b]--;
+				lastUse[b] = ++time;
+				if(tail < lines) {
+					count[b]++;
+					refill = tail;
+				}
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public int access(int line, int key, boolean trigger, int[] out) {
+		if(refill != -1) {
+			out[0] = refill;
+			refill = -1;
+			return 1;
+		}
+		if(!trigger) {
+			return 0;
+		}
+		int victim = 0;
+		for(int b = 1; b < head.length; b++) {
+			if(lastUse[b] < lastUse[victim]) {
+				victim = b;
+			}
+		}
+		head[victim] = line + distance;
+		count[victim] = 0;
+		lastUse[victim] = ++time;
+		for(int k = 0; k < degree && head[victim] + k < lines; k++) {
+			out[count[victim]++] = head[victim] + k;
+		}
+		return count[victim];
+	}
+
+}
@@ -0,0 +1,69 @@
+package lsi.instruction;
+
+/**
+ * Stride prefetching with a reference prediction table.
+ *
+ * The bus carries no program counter, so accesses are keyed by the address accessed just before them: for a data
+ * access this is the fetch of the READ or WRITE instruction, i.e. its PC. The direct-mapped table keeps, per key,
+ * the last line accessed, the stride between its last two accesses and a confidence from 0 to 3. Once the same
+ * stride has been seen twice in a row, each access fetches the degree lines starting distance strides ahead.
+ */
+public class StridePrefetcher extends Prefetcher {
+
+	private int[] keys;
+	private int[] lastLine;
+	private int[] stride;
+	private int[] confidence;
+	private int mask;
+
+	/**
+	 * @param tableSize Entries of the table, rounded up to a power of two
+	 */
+	public StridePrefetcher(int degree, int distance, int lines, int tableSize) {
+		super(degree, distance, lines);
+		int entries = 1;
+		while(entries < tableSize) {
+			entries <<= 1;
+		}
+		keys = new int[entries];
+		lastLine = new int[entries];
+		stride = new int[entries];
+		confidence = new int[entries];
+		mask = entries - 1;
+		for(int i = 0; i < entries; i++) {
+			keys[i] = -1;
+		}
+	}
+
+	public int access(int line, int key, boolean trigger, int[] out) {
+		int i = (key * 0x9E3779B9 >>> 16) & mask;
+		if(keys[i] != key) {
+			keys[i] = key; // new or conflicting key, start learning again
+			lastLine[i] = line;
+			stride[i] = 0;
+			confidence[i] = 0;
+			return 0;
+		}
+		int delta = line - lastLine[i];
+		lastLine[i] = line;
+		if(delta == stride[i]) {
+			confidence[i] = Math.min(confidence[i] + 1, 3);
+		} else {
+			stride[i] = delta;
+			confidence[i] = 0;
+		}
+		if(confidence[i] < 1 || stride[i] == 0) {
+			return 0;
+		}
+		int n = 0;
+		for(int k = 0; k < degree; k++) {
+			long next = line + (long)stride[i] * (distance + k);
+			if(next < 0 || next >= lines) {
+				break;
+			}
+			out[n++] = (int)next;
+		}
+		return n;
+	}
+
+}
@@ -0,0 +1,90 @@
+package lsi.instruction;
+
+/**
+ * Hash index from a loaded address to the cache entry holding it.
+ *
+ * Uses open addressing with linear probing over primitive arrays, so lookups neither box nor allocate.
+ * Addresses are never negative, -1 marks an empty slot.
+ */
+public class TagIndex {
+
+	public static final int NOT_FOUND = -1;
+	private static final int EMPTY = -1;
+
+	private int[] keys;
+	private int[] values;
+	private int mask;
+
+	/**
+	 * @param entries The maximum number of addresses the index will hold at the same time.
+	 */
+	public TagIndex(int entries) {
+		int capacity = 2;
+		while(capacity < entries * 2) {
+			capacity <<= 1; // keep the load factor under 0.5 so probe sequences stay short
+		}
+		keys = new int[capacity];
+		values = new int[capacity];
+		mask = capacity - 1;
+		clear();
+	}
+
+	/**
+	 * Returns the entry holding the address, or NOT_FOUND.
+	 */
+	public int get(int address) {
+		for(int i = slot(address); keys[i] != EMPTY; i = (i + 1) & mask) {
+			if(keys[i] == address) {
+				return values[i];
+			}
+		}
+		return NOT_FOUND;
+	}
+
+	public void put(int address, int entry) {
+		int i = slot(address);
+		while(keys[i] != EMPTY && keys[i] != address) {
+			i = (i + 1) & mask;
+		}
+		keys[i] = address;
+		values[i] = entry;
+	}
+
+	public void remove(int address) {
+		int i = slot(address);
+		while(keys[i] != address) {
+			if(keys[i] == EMPTY) {
+				return;
+			}
+			i = (i + 1) & mask;
+		}
+		// Backward shift deletion: move later keys of the same probe run into the hole so lookups never stop early
+		int j = i;
+		while(true) {
+			j = (j + 1) & mask;
+			if(keys[j] == EMPTY) {
+				break;
+			}
+			int home = slot(keys[j]);
+			boolean homeBetween = (i <= j) ? (i < home && home <= j) : (i < home || home <= j);
+			if(!homeBetween) {
+				keys[i] = keys[j];
+				values[i] = values[j];
+				i = j;
+			}
+		}
+		keys[i] = EMPTY;
+	}
+
+	public void clear() {
+		for(int i = 0; i < keys.length; i++) {
+			keys[i] = EMPTY;
+		}
+	}
+
+	private int slot(int address) {
+		int h = address * 0x9E3779B9;
+		return (h ^ (h >>> 16)) & mask;
+	}
+
+}
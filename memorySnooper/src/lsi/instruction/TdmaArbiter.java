@@ -0,0 +1,45 @@
+package lsi.instruction;
+
+/**
+ * Time division multiple access: time is split in slots of slotLength cycles, each owned by the master the slot
+ * table names, and the table repeats. Only the owner of the current slot can be granted the bus, a slot whose
+ * owner is not requesting is left idle, which makes the worst case wait of each master independent of the others.
+ */
+public class TdmaArbiter extends Arbiter {
+
+	private int[] slotTable;
+	private int slotLength;
+
+	/**
+	 * @param slotTable Owner of each slot, null for one slot per master in channel order
+	 * @param slotLength Cycles per slot
+	 */
+	public TdmaArbiter(int masters, int[] slotTable, int slotLength) {
+		super(masters);
+		if(slotTable == null) {
+			slotTable = new int[masters];
+			for(int i = 0; i < masters; i++) {
+				slotTable[i] = i;
+			}
+		}
+		if(slotTable.length == 0) {
+			throw new IllegalArgumentException("The TDMA slot table is empty");
+		}
+		for(int owner : slotTable) {
+			if(owner < 0 || owner >= masters) {
+				throw new IllegalArgumentException("TDMA slot owner " + owner + " is not one of the " + masters + " masters");
+			}
+		}
+		if(slotLength <= 0) {
+			throw new IllegalArgumentException("TDMA slot length must be positive, got " + slotLength);
+		}
+		this.slotTable = slotTable;
+		this.slotLength = slotLength;
+	}
+
+	public int select(int[] requests, long cycle) {
+		int owner = slotTable[(int)((cycle / slotLength) % slotTable.length)];
+		return (requests[owner] == 1) ? owner : -1;
+	}
+
+}
@@ -0,0 +1,79 @@
+package lsi.instruction;
+
+import ptolemy.data.IntToken;
+import ptolemy.data.RecordToken;
+import ptolemy.data.Token;
+import ptolemy.kernel.util.IllegalActionException;
+
+/**
+ * Bounded cache of the RecordTokens representing words, keyed by (type, data, address, time).
+ *
+ * Tokens are immutable, so the same instance can be sent every time the same word goes over a port. The cache is
+ * direct-mapped: a key lives in one slot and a new key colliding with it replaces it. Slots hold immutable entries
+ * that are swapped in with a single reference write, so concurrent models can share the cache without locking.
+ */
+public class TokenCache {
+
+	private static final String[] LABELS = {"type", "data", "address", "time"};
+
+	private static final class Entry {
+		final int type;
+		final int data;
+		final int address;
+		final int time;
+		final RecordToken token;
+
+		Entry(int type, int data, int address, int time, RecordToken token) {
+			this.type = type;
+			this.data = data;
+			this.address = address;
+			this.time = time;
+			this.token = token;
+		}
+	}
+
+	private final Entry[] entries;
+	private final int mask;
+
+	/**
+	 * @param capacity Number of slots, rounded up to a power of two
+	 */
+	public TokenCache(int capacity) {
+		int slots = 1;
+		while(slots < capacity) {
+			slots <<= 1;
+		}
+		entries = new Entry[slots];
+		mask = slots - 1;
+	}
+
+	/**
+	 * Returns the token of the word, building it only if it is not cached.
+	 */
+	public RecordToken get(int type, int data, int address, int time) throws IllegalActionException {
+		int slot = slot(type, data, address, time);
+		Entry entry = entries[slot];
+		if(entry != null && entry.type == type && entry.data == data && entry.address == address && entry.time == time) {
+			return entry.token;
+		}
+		RecordToken token = new RecordToken(LABELS, new Token[] {new IntToken(type), new IntToken(data), new IntToken(address), new IntToken(time)});
+		entries[slot] = new Entry(type, data, address, time, token);
+		return token;
+	}
+
+	public void clear() {
+		for(int i = 0; i < entries.length; i++) {
+			entries[i] = null;
+		}
+	}
+
+	private int slot(int type, int data, int address, int time) {
+		int h = type;
+		h = h * 31 + data;
+		h = h * 31 + address;
+		h = h * 31 + time;
+		h *= 0x9E3779B9;
+		return (h ^ (h >>> 16)) & mask;
+	}
+
+}
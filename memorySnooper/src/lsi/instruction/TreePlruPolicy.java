@@ -0,0 +1,48 @@
+package lsi.instruction;
+
+/**
+ * Tree pseudo-LRU: each set has a binary tree of ways-1 bits, every bit points to the half of the set that
+ * was used less recently. Accesses flip the bits on the path to the accessed way, the victim is found by
+ * following the bits from the root. Both take log2(ways) steps. Requires ways to be a power of two.
+ */
+public class TreePlruPolicy extends ReplacementPolicy {
+
+	// Node n of a set lives at [set * ways + n], nodes are numbered 1..ways-1 like a binary heap
+	private boolean[] pointsRight;
+
+	public TreePlruPolicy(int sets, int ways) {
+		super(sets, ways);
+		if(Integer.bitCount(ways) != 1) {
+			throw new IllegalArgumentException("Tree PLRU needs a power of two associativity, got " + ways);
+		}
+		pointsRight = new boolean[sets * ways];
+	}
+
+	public void hit(int set, int way) {
+		touch(set, way);
+	}
+
+	public int victim(int set, int line) {
+		int base = set * ways;
+		int node = 1;
+		while(node < ways) {
+			node = 2 * node + (pointsRight[base + node] ? 1 : 0);
+		}
+		return node - ways;
+	}
+
+	public void filled(int set, int way, int line) {
+		touch(set, way);
+	}
+
+	private void touch(int set, int way) {
+		int base = set * ways;
+		int node = way + ways; // leaf
+		while(node > 1) {
+			int parent = node >> 1;
+			pointsRight[base + parent] = (node & 1) == 0; // point away from the accessed child
+			node = parent;
+		}
+	}
+
+}
@@ -0,0 +1,46 @@
+package lsi.instruction;
+
+/**
+ * Weighted fair share by stride scheduling: each master has a pass that advances by STRIDE / weight every time it
+ * is granted, and the requesting master with the lowest pass wins. Over time master i gets weight[i] / sum(weights)
+ * of the grants of the masters competing with it.
+ * A master that stops requesting does not bank credit: its pass is brought up to the current virtual time when it
+ * competes again, so it cannot then monopolise the bus.
+ */
+public class WeightedFairArbiter extends Arbiter {
+
+	private static final long STRIDE = 1 << 20;
+
+	private long[] pass;
+	private long[] stride;
+	private long virtualTime = 0;
+
+	public WeightedFairArbiter(int masters, int[] weights) {
+		super(masters);
+		pass = new long[masters];
+		stride = new long[masters];
+		for(int i = 0; i < masters; i++) {
+			stride[i] = STRIDE / weights[i];
+		}
+	}
+
+	public int select(int[] requests, long cycle) {
+		int winner = -1;
+		for(int i = 0; i < masters; i++) {
+			if(requests[i] == 1) {
+				if(pass[i] < virtualTime) {
+					pass[i] = virtualTime;
+				}
+				if(winner == -1 || pass[i] < pass[winner]) {
+					winner = i;
+				}
+			}
+		}
+		if(winner != -1) {
+			virtualTime = pass[winner];
+			pass[winner] += stride[winner];
+		}
+		return winner;
+	}
+
+}
@@ -0,0 +1,45 @@
+package lsi.instruction;
+
+/**
+ * The write-hit and write-miss policies of a cache, resolved from their integer codes once so that the
+ * simulation only tests booleans on each access.
+ */
+public final class WritePolicy {
+
+	// Write-hit policies
+	public static final int WRITE_BACK = 0;     // Write to cache now, write to main later if cache word is overwritten
+	public static final int WRITE_THROUGH = 1;  // Write to cache and main at the same time
+
+	// Write-miss policies
+	public static final int WRITE_AROUND = 2;   // Just write to main
+	public static final int WRITE_ALLOCATE = 3; // Load into cache & write on cache and main
+
+	public final boolean enabled;       // When false writes just load the written address in the cache
+	public final boolean writeThrough;
+	public final boolean writeAllocate;
+
+	/**
+	 * @param enabled Whether the write policies are simulated at all
+	 * @param writeHitPolicy WRITE_BACK or WRITE_THROUGH
+	 * @param writeMissPolicy WRITE_AROUND or WRITE_ALLOCATE
+	 */
+	public WritePolicy(boolean enabled, int writeHitPolicy, int writeMissPolicy) {
+		if(writeHitPolicy != WRITE_BACK && writeHitPolicy != WRITE_THROUGH) {
+			throw new IllegalArgumentException("Unknown write-hit policy " + writeHitPolicy);
+		}
+		if(writeMissPolicy != WRITE_AROUND && writeMissPolicy != WRITE_ALLOCATE) {
+			throw new IllegalArgumentException("Unknown write-miss policy " + writeMissPolicy);
+		}
+		this.enabled = enabled;
+		this.writeThrough = writeHitPolicy == WRITE_THROUGH;
+		this.writeAllocate = writeMissPolicy == WRITE_ALLOCATE;
+	}
+
+	public String toString() {
+		if(!enabled) {
+			return "NO_WRITE_POLICY";
+		}
+		return (writeThrough ? "WRITE_THROUGH" : "WRITE_BACK") + "/" + (writeAllocate ? "WRITE_ALLOCATE" : "WRITE_AROUND");
+	}
+
+}